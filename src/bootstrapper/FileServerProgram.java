@@ -2,6 +2,7 @@ package bootstrapper;
 
 import fileserver.logic.FileStorage;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
@@ -26,6 +27,21 @@ public class FileServerProgram
      */
     public static final int PORT_NUMBER = 2501;
 
+    /**
+     * port of the data channel, used to transfer files outside of RMI
+     */
+    public static final int DATA_PORT_NUMBER = 2502;
+
+    /**
+     * host under which clients reach the data channel
+     */
+    private static final String DATA_HOST = "localhost";
+
+    /**
+     * system property which disables the data channel when set to false
+     */
+    private static final String DATA_CHANNEL_PROPERTY = "messenger.datachannel";
+
     /**
      * main entry point of the file server program
      * @param args not used
@@ -47,13 +63,27 @@ public class FileServerProgram
             fileStorage = new FileStorage();
             System.out.println("FileServer: file storage created");
         }
-        catch (RemoteException e)
+        catch (IOException e)
         {
             System.out.println("FileServer: cannot create file storage");
             e.printStackTrace();
             fileStorage = null;
         }
 
+        if (fileStorage != null && !"false".equalsIgnoreCase(System.getProperty(DATA_CHANNEL_PROPERTY)))
+        {
+            try
+            {
+                fileStorage.openDataChannel(DATA_HOST, DATA_PORT_NUMBER);
+                System.out.printf("FileServer: data channel opened on port number %d%n", DATA_PORT_NUMBER);
+            }
+            catch (IOException e)
+            {
+                System.out.println("FileServer: cannot open data channel, files are only transferred through RMI");
+                e.printStackTrace();
+            }
+        }
+
         try
         {
             registry = LocateRegistry.createRegistry(PORT_NUMBER);
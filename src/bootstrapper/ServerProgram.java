@@ -1,7 +1,9 @@
 package bootstrapper;
 
+import server.logic.NioAdministrationServer;
 import server.logic.ServerAdministration;
 
+import java.io.IOException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
@@ -22,33 +24,70 @@ public class ServerProgram
      */
     public static final String BINDING_NAME = "ServerMessenger";
 
+    /**
+     * the binding name to obtain the topic router
+     */
+    public static final String ROUTER_BINDING_NAME = "TopicRouter";
+
     /**
      * the port number used to to connect to the server
      */
     public static final int PORT_NUMBER = 2500;
 
+    /**
+     * the port number used to call the administration over the NIO transport
+     */
+    public static final int NIO_PORT_NUMBER = 2503;
+
+    /**
+     * transport argument which only serves the administration over RMI, the default
+     */
+    public static final String TRANSPORT_RMI = "rmi";
+
+    /**
+     * transport argument which only serves the administration over NIO
+     */
+    public static final String TRANSPORT_NIO = "nio";
+
+    /**
+     * transport argument which serves the administration over both RMI and NIO
+     */
+    public static final String TRANSPORT_BOTH = "both";
+
+    /**
+     * the server of the NIO transport, null if it is not started
+     */
+    private NioAdministrationServer nioServer;
+
     /**
      * Main entry point of the server application
-     * @param args not used
+     * @param args optionally the transport of the administration: rmi, nio or both. The topic router, which pushes
+     *             changes to the clients, is always served over RMI
      */
     public static void main(String[] args)
     {
-        new ServerProgram();
+        new ServerProgram(args.length > 0 ? args[0] : TRANSPORT_RMI);
     }
 
     /**
      * The constructor of the server application
+     * @param transport of the administration: rmi, nio or both
      */
-    private ServerProgram()
+    private ServerProgram(String transport)
     {
+        if (!transport.equals(TRANSPORT_RMI) && !transport.equals(TRANSPORT_NIO) && !transport.equals(TRANSPORT_BOTH))
+        {
+            throw new IllegalArgumentException("Transport must be rmi, nio or both");
+        }
+
         ServerAdministration serverAdministration;
 
         try
         {
-            serverAdministration = new ServerAdministration(this);
+            serverAdministration = new ServerAdministration();
             System.out.println("Server: server administration created");
         }
-        catch (RemoteException e)
+        catch (IOException e)
         {
             System.out.println("Server: cannot create server administration");
             e.printStackTrace();
@@ -66,7 +105,55 @@ public class ServerProgram
             e.printStackTrace();
         }
 
-        registerProperty(BINDING_NAME, serverAdministration);
+        if (!transport.equals(TRANSPORT_NIO))
+        {
+            registerProperty(BINDING_NAME, serverAdministration);
+        }
+
+        if (serverAdministration != null)
+        {
+            registerProperty(ROUTER_BINDING_NAME, serverAdministration.getTopicRouter());
+
+            if (!transport.equals(TRANSPORT_RMI))
+            {
+                startNioServer(serverAdministration);
+            }
+        }
+    }
+
+    /**
+     * Starts serving the administration over the NIO transport
+     * @param serverAdministration to be served
+     */
+    private void startNioServer(ServerAdministration serverAdministration)
+    {
+        try
+        {
+            nioServer = new NioAdministrationServer(serverAdministration, NIO_PORT_NUMBER);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stopNioServer, "nio-administration-shutdown"));
+            System.out.printf("Server: NIO transport started on port number %d%n", NIO_PORT_NUMBER);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Server: cannot start NIO transport");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops serving the administration over the NIO transport, run when the server shuts down
+     */
+    private void stopNioServer()
+    {
+        try
+        {
+            nioServer.close();
+            System.out.println("Server: NIO transport stopped");
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -1,39 +1,68 @@
 package client.logic;
 
 import exceptions.InvalidArgumentException;
+import fileserver.logic.FileTransferClient;
+import fileserver.logic.IFileStorage;
+import fileserver.logic.TransferTicket;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.collections.ObservableMap;
 import server.logic.IAdministration;
+import server.logic.ITopicRouter;
 import server.logic.User;
+import shared.AttachmentStoredEvent;
+import shared.ChatHistoryPage;
 import shared.ChatMessage;
+import shared.ChatSummary;
+import shared.EncodedPayload;
 import shared.FileMessage;
+import shared.MessageAppendedEvent;
 import shared.SerializableChat;
-import shared.fontyspublisher.IRemotePropertyListener;
-import shared.fontyspublisher.IRemotePublisherForListener;
+import shared.fontyspublisher.IRemoteBatchPropertyListener;
+import shared.fontyspublisher.TopicEvent;
 
 import java.beans.PropertyChangeEvent;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 /**
  * Main administration class for the client application
  */
-public class Administration extends UnicastRemoteObject implements IRemotePropertyListener
+public class Administration extends UnicastRemoteObject implements IRemoteBatchPropertyListener
 {
+    /**
+     * system property which stops the client from advertising compression support when set to false
+     */
+    private static final String COMPRESSION_PROPERTY = "messenger.compression";
     /**
      * Main communication entry point for client-initiated methods
      */
     private final IAdministration administration;
 
     /**
-     * Publisher which calls methods from the server onto the client
+     * Router through which the client subscribes to changes on the server
      */
-    private IRemotePublisherForListener publisher;
+    private ITopicRouter topicRouter;
 
     /**
      * The client-server connector class
@@ -70,6 +99,22 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
      */
     private ObservableMap<String, SerializableChat> chatByName;
 
+    /**
+     * The outcome of attachment uploads which finished while the client was logged in, by stored name
+     */
+    private final Map<String, Boolean> attachmentStates;
+
+    /**
+     * The sequence number of the last received event, per topic, used to resume after the connection was lost
+     */
+    private final Map<String, Long> lastSequenceNumbers;
+
+    /**
+     * The thread on which the asynchronous methods call the server, one thread so calls are made in the order the
+     * user made them
+     */
+    private final ExecutorService ioExecutor;
+
     /**
      * Constructor of the administration class
      * @throws RemoteException if something goes wrong in the connection to the server
@@ -80,6 +125,13 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
 
         serverClient = new ServerClient();
         chatByName = FXCollections.observableHashMap();
+        attachmentStates = new ConcurrentHashMap<>();
+        lastSequenceNumbers = new ConcurrentHashMap<>();
+        ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "client-io");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         participatingChats = FXCollections.observableArrayList();
         observableParticipatingChatNames = FXCollections.observableArrayList();
@@ -125,11 +177,12 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
     {
         try
         {
-            sessionId = administration.login(username, password);
+            sessionId = administration.login(username, password, getCapabilities());
             if (sessionId != -1)
             {
+                lastSequenceNumbers.clear();
                 this.username = username;
-                publisher = serverClient.getPublisher(username);
+                topicRouter = serverClient.getTopicRouter();
 
                 this.getUserData();
                 return true;
@@ -142,6 +195,20 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
         return false;
     }
 
+    /**
+     * Gets the capabilities this client advertises to the server when logging in
+     * @return a combination of the IAdministration CAPABILITY constants
+     */
+    private static int getCapabilities()
+    {
+        if ("false".equalsIgnoreCase(System.getProperty(COMPRESSION_PROPERTY)))
+        {
+            return 0;
+        }
+
+        return IAdministration.CAPABILITY_COMPRESSION;
+    }
+
     /**
      * Registers and logs the user into the system
      * @param username of the user
@@ -153,11 +220,12 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
     {
         try
         {
-            sessionId = administration.register(username, password);
+            sessionId = administration.register(username, password, getCapabilities());
             if (sessionId != -1)
             {
+                lastSequenceNumbers.clear();
                 this.username = username;
-                publisher = serverClient.getPublisher(username);
+                topicRouter = serverClient.getTopicRouter();
 
                 this.getUserData();
                 return true;
@@ -177,8 +245,8 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
     {
         try
         {
+            topicRouter.unsubscribe(sessionId, this, null);
             administration.logout(sessionId);
-            publisher.unsubscribeRemoteListener(this, null);
         }
         catch (RemoteException | InvalidArgumentException e)
         {
@@ -204,6 +272,17 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
         return false;
     }
 
+    /**
+     * Adds a contact to the user without blocking the calling thread
+     * @param contactName of the contact
+     * @return a future which completes on the JavaFX application thread with true if the contact was added, or with
+     * a RemoteException if something goes wrong in the connection
+     */
+    public CompletableFuture<Boolean> addContactAsync(String contactName)
+    {
+        return callAsync(() -> addContact(contactName));
+    }
+
     /**
      * Removes a contact of the user
      * @param contactName of the contact
@@ -234,6 +313,29 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
         { }
     }
 
+    /**
+     * Creates a new chat with the specified contact without blocking the calling thread
+     * @param contact which will also be added to the chat
+     * @return a future which completes on the JavaFX application thread once the chat is known to this client, or
+     * with a RemoteException if something goes wrong in the connection
+     */
+    public CompletableFuture<Void> newChatAsync(String contact)
+    {
+        return callAsync(() -> {
+            try
+            {
+                administration.newChat(sessionId, contact);
+            }
+            catch (InvalidArgumentException ignored)
+            { }
+
+            return administration.getChatSummaries(sessionId);
+        }, chatSummaries -> {
+            getAllChatData(chatSummaries);
+            return null;
+        });
+    }
+
     /**
      * Sends a file to the server
      * @param chatName of the chat
@@ -243,14 +345,131 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
     {
         try
         {
-            final byte[] data = Files.readAllBytes(file.toPath());
-            long chatId = chatByName.get(chatName).getChatId();
-            administration.sendMessage(sessionId, chatId, new FileMessage(data, file.getName(), username));
+            uploadFile(chatByName.get(chatName).getChatId(), file);
         }
         catch (InvalidArgumentException | IOException ignored)
         { }
     }
 
+    /**
+     * Sends a file to the server without blocking the calling thread
+     * @param chatName of the chat
+     * @param file to be send
+     * @return a future which completes on the JavaFX application thread once the server accepted the file, or with
+     * an exception if the file could not be read or send
+     */
+    public CompletableFuture<Void> sendFileAsync(String chatName, File file)
+    {
+        long chatId = chatByName.get(chatName).getChatId();
+
+        return callAsync(() -> {
+            uploadFile(chatId, file);
+            return null;
+        });
+    }
+
+    /**
+     * Uploads a file to the data channel of the file server, or in chunks through the server if there is no data
+     * channel or it fails, so the file is never held in memory as a whole. The server sends a file message which
+     * refers to the file once the upload is committed.
+     * @param chatId of the chat
+     * @param file to be send
+     * @throws IOException if the file cannot be read or uploaded, the upload is aborted
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    private void uploadFile(long chatId, File file) throws IOException, InvalidArgumentException
+    {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = fileChannel.size();
+            long uploadId = administration.openAttachmentUpload(sessionId, chatId, file.getName());
+
+            try
+            {
+                TransferTicket ticket = administration.requestAttachmentUpload(sessionId, uploadId, size);
+                boolean uploaded = false;
+
+                if (ticket != null)
+                {
+                    try
+                    {
+                        FileTransferClient.upload(ticket, fileChannel);
+                        uploaded = true;
+                    }
+                    catch (IOException e)
+                    {
+                        System.out.println("Client.Administration: data channel upload failed, uploading through the server");
+                        e.printStackTrace();
+                        administration.abortAttachmentUpload(sessionId, uploadId);
+                        uploadId = administration.openAttachmentUpload(sessionId, chatId, file.getName());
+                    }
+                }
+
+                if (!uploaded)
+                {
+                    writeChunks(uploadId, fileChannel, size);
+                }
+
+                administration.commitAttachmentUpload(sessionId, uploadId);
+            }
+            catch (IOException | InvalidArgumentException | RuntimeException e)
+            {
+                administration.abortAttachmentUpload(sessionId, uploadId);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Uploads a file through the server, one chunk per call
+     * @param uploadId of the upload
+     * @param fileChannel of the file, read from position 0
+     * @param size of the file
+     * @throws IOException if the file cannot be read or a chunk cannot be written
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    private void writeChunks(long uploadId, FileChannel fileChannel, long size) throws IOException, InvalidArgumentException
+    {
+        ByteBuffer chunk = ByteBuffer.allocate(IFileStorage.CHUNK_SIZE);
+
+        for (long offset = 0; offset < size; offset += chunk.position())
+        {
+            chunk.clear();
+            if (size - offset < chunk.capacity())
+            {
+                chunk.limit((int) (size - offset));
+            }
+
+            while (chunk.hasRemaining())
+            {
+                if (fileChannel.read(chunk, offset + chunk.position()) < 0)
+                {
+                    throw new EOFException("The file is shorter than it was");
+                }
+            }
+
+            administration.writeAttachmentChunk(sessionId, uploadId, offset, Arrays.copyOf(chunk.array(), chunk.position()));
+        }
+    }
+
+    /**
+     * Sends a message to the specified chat without blocking the calling thread
+     * @param chatName of the chat
+     * @param message which will be send to the chat
+     * @return a future which completes on the JavaFX application thread once the server accepted the message, or with
+     * an exception if the message could not be send
+     */
+    public CompletableFuture<Void> sendMessageAsync(String chatName, String message)
+    {
+        long chatId = chatByName.get(chatName).getChatId();
+        ChatMessage chatMessage = new ChatMessage(message, username);
+
+        return callAsync(() -> {
+            administration.sendMessage(sessionId, chatId, chatMessage);
+            return null;
+        });
+    }
+
     /**
      * Sends a message to the specified chat
      * @param chatName of the chat
@@ -270,38 +489,236 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
     }
 
     /**
-     * Gets all initial user data when the user logs in to the system
+     * Gets all initial user data when the user logs in to the system, message history is loaded when a chat is opened
      * @throws RemoteException if something goes wrong in the connection
      * @throws InvalidArgumentException if the specified data could not be obtained due to false information being given
      */
     private void getUserData() throws RemoteException, InvalidArgumentException
     {
-        getAllChatData(administration.getParticipatingChats(sessionId));
+        getAllChatData(administration.getChatSummaries(sessionId));
         observableContacts.addAll(administration.getContacts(sessionId));
 
         subscribeAllProperties();
     }
 
     /**
-     * Gets all chat data out of the list of chats
-     * @param participatingChats the user participates in
+     * Gets all chat data out of the list of chat summaries, chats which are already loaded are kept
+     * @param chatSummaries of the chats the user participates in
      */
-    private void getAllChatData(List<SerializableChat> participatingChats)
+    private synchronized void getAllChatData(List<ChatSummary> chatSummaries)
     {
-        this.participatingChats.clear();
-        this.participatingChats.addAll(participatingChats);
+        Map<Long, SerializableChat> loadedChats = new HashMap<>();
+        for (SerializableChat chat : participatingChats)
+        {
+            loadedChats.put(chat.getChatId(), chat);
+        }
 
+        this.participatingChats.clear();
         chatByName.clear();
         observableParticipatingChatNames.clear();
 
-        for (SerializableChat chat : participatingChats)
+        for (ChatSummary summary : chatSummaries)
         {
+            SerializableChat chat = loadedChats.get(summary.getChatId());
+            if (chat == null || chat.getLastSequenceNumber() < summary.getLastSequenceNumber())
+            {
+                chat = new SerializableChat(summary);
+            }
+
             String chatName = chat.getName(username);
+            participatingChats.add(chat);
             observableParticipatingChatNames.add(chatName);
             chatByName.put(chatName, chat);
         }
     }
 
+    /**
+     * Loads the page of messages which precedes the oldest loaded message of the specified chat
+     * @param chatName of the chat
+     */
+    public synchronized void loadOlderMessages(String chatName)
+    {
+        SerializableChat chat = chatByName.get(chatName);
+
+        if (chat == null || !chat.hasOlderMessages())
+        {
+            return;
+        }
+
+        try
+        {
+            applyOlderMessages(fetchOlderMessages(chat));
+        }
+        catch (RemoteException | InvalidArgumentException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the page of messages which precedes the oldest loaded message of a chat from the server
+     * @param chat of which the older messages are requested
+     * @return the page of older messages
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if the chat is not known to the server
+     */
+    private ChatHistoryPage fetchOlderMessages(SerializableChat chat) throws RemoteException, InvalidArgumentException
+    {
+        return administration.getChatHistory(sessionId, chat.getChatId(), chat.getFirstSequenceNumber(), ChatHistoryPage.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Prepends a page of older messages to the locally known version of its chat, the page is ignored if the chat
+     * changed in a way that the page no longer directly precedes its messages
+     * @param page of older messages
+     */
+    private synchronized void applyOlderMessages(ChatHistoryPage page)
+    {
+        for (SerializableChat chat : participatingChats)
+        {
+            if (chat.getChatId() == page.getChatId())
+            {
+                SerializableChat newValue = chat.withOlderMessages(page);
+
+                if (newValue != null)
+                {
+                    replaceChat(newValue);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Loads the page of messages which precedes the oldest loaded message of the specified chat without blocking the
+     * calling thread
+     * @param chatName of the chat
+     * @return a future which completes on the JavaFX application thread once the page is loaded
+     */
+    public CompletableFuture<Void> loadOlderMessagesAsync(String chatName)
+    {
+        SerializableChat chat = chatByName.get(chatName);
+
+        if (chat == null || !chat.hasOlderMessages())
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return callAsync(() -> fetchOlderMessages(chat), page -> {
+            applyOlderMessages(page);
+            return null;
+        });
+    }
+
+    /**
+     * Marks all loaded messages of the specified chat as read without blocking the calling thread
+     * @param chatName of the chat
+     * @return a future which completes on the JavaFX application thread once the server marked the messages
+     */
+    public CompletableFuture<Void> markChatReadAsync(String chatName)
+    {
+        SerializableChat chat = chatByName.get(chatName);
+
+        if (chat == null)
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return callAsync(() -> {
+            administration.markChatRead(sessionId, chat.getChatId(), chat.getLastSequenceNumber());
+            return null;
+        });
+    }
+
+    /**
+     * Calls the server on the I/O thread and completes the returned future on the JavaFX application thread, so
+     * callbacks of the future may update the view
+     * @param call to be made
+     * @param <T> the type of the result
+     * @return a future which completes with the result or the exception of the call
+     */
+    private <T> CompletableFuture<T> callAsync(Callable<T> call)
+    {
+        return callAsync(call, Function.identity());
+    }
+
+    /**
+     * Calls the server on the I/O thread and applies the result on the JavaFX application thread, the call itself
+     * must not touch the observable collections the view is bound to
+     * @param call to be made, only fetches data
+     * @param apply which updates the local state with the result of the call
+     * @param <T> the type of the result of the call
+     * @param <R> the type of the result of the future
+     * @return a future which completes on the JavaFX application thread with the applied result or the exception
+     * of the call
+     */
+    private <T, R> CompletableFuture<R> callAsync(Callable<T> call, Function<T, R> apply)
+    {
+        CompletableFuture<R> result = new CompletableFuture<>();
+
+        ioExecutor.execute(() -> {
+            try
+            {
+                T value = call.call();
+                Platform.runLater(() -> {
+                    try
+                    {
+                        result.complete(apply.apply(value));
+                    }
+                    catch (RuntimeException e)
+                    {
+                        result.completeExceptionally(e);
+                    }
+                });
+            }
+            catch (Exception e)
+            {
+                Platform.runLater(() -> result.completeExceptionally(e));
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Marks all loaded messages of the specified chat as read
+     * @param chatName of the chat
+     */
+    public void markChatRead(String chatName)
+    {
+        SerializableChat chat = chatByName.get(chatName);
+
+        if (chat == null)
+        {
+            return;
+        }
+
+        try
+        {
+            administration.markChatRead(sessionId, chat.getChatId(), chat.getLastSequenceNumber());
+        }
+        catch (RemoteException | InvalidArgumentException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replaces the locally known version of a chat by the specified version
+     * @param newValue the new version of the chat
+     */
+    private void replaceChat(SerializableChat newValue)
+    {
+        for (int i = 0; i < participatingChats.size(); i++)
+        {
+            if (newValue.getChatId() == participatingChats.get(i).getChatId())
+            {
+                participatingChats.set(i, newValue);
+                chatByName.replace(newValue.getName(username), newValue);
+            }
+        }
+    }
+
     /**
      * Gets a chat by the specified name
      * @param chatName of the chat
@@ -321,6 +738,7 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
         subscribeProperty(User.REGISTRY_UPDATER);
         subscribeProperty(User.CONTACT_LIST_UPDATER);
         subscribeProperty(User.CHAT_LIST_UPDATER);
+        subscribeProperty(User.ATTACHMENT_UPDATER);
 
         for (SerializableChat chat : participatingChats)
         {
@@ -335,12 +753,110 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
      */
     private void subscribeProperty(String property) throws RemoteException
     {
-        publisher.subscribeRemoteListener(this, property);
+        try
+        {
+            topicRouter.subscribe(sessionId, this, property);
+        }
+        catch (InvalidArgumentException e)
+        {
+            throw new RemoteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void propertyChanges(List<PropertyChangeEvent> events)
+    {
+        for (PropertyChangeEvent evt : events)
+        {
+            propertyChange(evt);
+        }
+    }
+
+    /**
+     * Subscribes to all topics again after the connection with the server was lost, only the missed changes are send again.
+     * Topics of which too many changes were missed are reloaded completely
+     * @throws RemoteException if something goes wrong in the connection
+     */
+    public void reconnect() throws RemoteException
+    {
+        Map<String, Long> lastSeen = new HashMap<>();
+        lastSeen.put(User.REGISTRY_UPDATER, lastSequenceNumbers.getOrDefault(User.REGISTRY_UPDATER, 0L));
+        lastSeen.put(User.CONTACT_LIST_UPDATER, lastSequenceNumbers.getOrDefault(User.CONTACT_LIST_UPDATER, 0L));
+        lastSeen.put(User.CHAT_LIST_UPDATER, lastSequenceNumbers.getOrDefault(User.CHAT_LIST_UPDATER, 0L));
+        lastSeen.put(User.ATTACHMENT_UPDATER, lastSequenceNumbers.getOrDefault(User.ATTACHMENT_UPDATER, 0L));
+
+        for (SerializableChat chat : new ArrayList<>(participatingChats))
+        {
+            lastSeen.put(chat.getChatSubscriptionName(), lastSequenceNumbers.getOrDefault(chat.getChatSubscriptionName(), 0L));
+        }
+
+        try
+        {
+            List<String> staleTopics = topicRouter.resume(sessionId, this, lastSeen);
+
+            if (!staleTopics.isEmpty())
+            {
+                reloadTopics(staleTopics);
+            }
+        }
+        catch (InvalidArgumentException e)
+        {
+            throw new RemoteException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reloads the complete state of topics of which changes were missed
+     * @param topics to be reloaded
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if the session is no longer valid
+     */
+    private void reloadTopics(List<String> topics) throws RemoteException, InvalidArgumentException
+    {
+        if (topics.contains(User.CONTACT_LIST_UPDATER))
+        {
+            List<String> contacts = administration.getContacts(sessionId);
+            Platform.runLater(() -> observableContacts.setAll(contacts));
+        }
+
+        if (topics.contains(User.CHAT_LIST_UPDATER) || topics.contains(User.REGISTRY_UPDATER))
+        {
+            List<ChatSummary> chatSummaries = administration.getChatSummaries(sessionId);
+            Platform.runLater(() -> getAllChatData(chatSummaries));
+
+            for (ChatSummary summary : chatSummaries)
+            {
+                subscribeProperty(summary.getChatSubscriptionName());
+            }
+        }
+
+        Platform.runLater(() -> {
+            for (SerializableChat chat : new ArrayList<>(participatingChats))
+            {
+                if (topics.contains(chat.getChatSubscriptionName()))
+                {
+                    reloadChat(chat);
+                }
+            }
+        });
     }
 
     @Override
     public void propertyChange(PropertyChangeEvent evt)
     {
+        if (evt instanceof TopicEvent)
+        {
+            long sequenceNumber = ((TopicEvent) evt).getSequenceNumber();
+            Long lastSequenceNumber = lastSequenceNumbers.get(evt.getPropertyName());
+
+            if (lastSequenceNumber != null && sequenceNumber <= lastSequenceNumber)
+            {
+                return;
+            }
+
+            lastSequenceNumbers.put(evt.getPropertyName(), sequenceNumber);
+        }
+
         switch (evt.getPropertyName())
         {
             case User.REGISTRY_UPDATER:
@@ -356,33 +872,90 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
                 break;
         }
 
-        for (SerializableChat chat : participatingChats)
+        Object newValue;
+
+        try
+        {
+            newValue = EncodedPayload.unwrap(evt.getNewValue());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+
+        if (evt.getPropertyName().equals(User.ATTACHMENT_UPDATER))
         {
-            if (evt.getPropertyName().equals(chat.getChatSubscriptionName()))
+            attachmentStored((AttachmentStoredEvent) newValue);
+            return;
+        }
+
+        Platform.runLater(() -> {
+            for (SerializableChat chat : participatingChats)
             {
-                chatMessagesChanged(chat, evt);
-                return;
+                if (evt.getPropertyName().equals(chat.getChatSubscriptionName()))
+                {
+                    chatMessagesChanged(chat, (MessageAppendedEvent) newValue);
+                    return;
+                }
             }
-        }
+        });
     }
 
     /**
      * Is being called when the chat messages object changed on the server
      * @param chat which messages got changed
-     * @param evt event which is called on a property change
+     * @param event describing the message which was appended
      */
-    private void chatMessagesChanged(SerializableChat chat, PropertyChangeEvent evt)
+    private synchronized void chatMessagesChanged(SerializableChat chat, MessageAppendedEvent event)
     {
-        SerializableChat newValue = (SerializableChat) evt.getNewValue();
+        if (event.getSequenceNumber() <= chat.getLastSequenceNumber())
+        {
+            return;
+        }
 
-        for (int i = 0; i < participatingChats.size(); i++)
+        SerializableChat newValue = chat.withAppendedMessage(event);
+
+        if (newValue == null)
         {
-            if (chat.getChatId() == participatingChats.get(i).getChatId())
+            reloadChat(chat);
+            return;
+        }
+
+        replaceChat(newValue);
+    }
+
+    /**
+     * Is being called when the upload of an attachment in one of the chats has finished
+     * @param event describing the outcome of the upload
+     */
+    private void attachmentStored(AttachmentStoredEvent event)
+    {
+        attachmentStates.put(event.getStoredName(), event.isStored());
+    }
+
+    /**
+     * Reloads the most recent messages of a chat from the server without blocking the calling thread, used when an
+     * appended message was missed
+     * @param chat to be reloaded
+     */
+    private void reloadChat(SerializableChat chat)
+    {
+        callAsync(() -> administration.getChatSummaries(sessionId), chatSummaries -> {
+            for (ChatSummary summary : chatSummaries)
             {
-                participatingChats.set(i, newValue);
-                chatByName.replace(chat.getName(username), newValue);
+                if (summary.getChatId() == chat.getChatId())
+                {
+                    replaceChat(new SerializableChat(summary));
+                    loadOlderMessagesAsync(chat.getName(username));
+                    break;
+                }
             }
-        }
+            return null;
+        }).exceptionally(failure -> {
+            failure.printStackTrace();
+            return null;
+        });
     }
 
     /**
@@ -391,8 +964,9 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
      */
     private void userChatListUpdaterChanged(PropertyChangeEvent evt)
     {
-        observableParticipatingChatNames.clear();
-        getAllChatData((List<SerializableChat>) evt.getNewValue());
+        @SuppressWarnings("unchecked")
+        List<ChatSummary> chatSummaries = (List<ChatSummary>) evt.getNewValue();
+        Platform.runLater(() -> getAllChatData(chatSummaries));
     }
 
     /**
@@ -401,8 +975,9 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
      */
     private void contactListUpdaterChanged(PropertyChangeEvent evt)
     {
-        observableContacts.clear();
-        observableContacts.addAll((List<String>) evt.getNewValue());
+        @SuppressWarnings("unchecked")
+        List<String> contacts = (List<String>) evt.getNewValue();
+        Platform.runLater(() -> observableContacts.setAll(contacts));
     }
 
     /**
@@ -413,7 +988,7 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
     {
         try
         {
-            publisher.subscribeRemoteListener(this, (String) evt.getNewValue());
+            subscribeProperty((String) evt.getNewValue());
         }
         catch (RemoteException e)
         {
@@ -423,12 +998,89 @@ public class Administration extends UnicastRemoteObject implements IRemoteProper
 
     /**
      * Gets the send file out of a message to save it in the specified location
-     * @param fileMessage which contains the file data
+     * @param chatName of the chat the message was send in
+     * @param fileMessage which contains or refers to the file data
+     * @param file location where it needs to be saved
+     * @throws IOException if the file is not available or something goes wrong in writing the data
+     */
+    public void getFile(String chatName, FileMessage fileMessage, File file) throws IOException
+    {
+        downloadFile(chatByName.get(chatName).getChatId(), fileMessage, file);
+    }
+
+    /**
+     * Gets the send file out of a message and saves it in the specified location without blocking the calling thread
+     * @param chatName of the chat the message was send in
+     * @param fileMessage which contains or refers to the file data
+     * @param file location where it needs to be saved
+     * @return a future which completes on the JavaFX application thread once the file is saved, or with an exception
+     * if the file is not available or could not be written
+     */
+    public CompletableFuture<Void> getFileAsync(String chatName, FileMessage fileMessage, File file)
+    {
+        long chatId = chatByName.get(chatName).getChatId();
+
+        return callAsync(() -> {
+            downloadFile(chatId, fileMessage, file);
+            return null;
+        });
+    }
+
+    /**
+     * Downloads the file of a message from the data channel of the file server, or in chunks through the server
+     * @param chatId of the chat the message was send in
+     * @param fileMessage which contains or refers to the file data
      * @param file location where it needs to be saved
-     * @throws IOException if something goes wrong in writing the data
+     * @throws IOException if the file is not available or something goes wrong in writing the data
      */
-    public void getFile(FileMessage fileMessage, File file) throws IOException
+    private void downloadFile(long chatId, FileMessage fileMessage, File file) throws IOException
     {
-        Files.write(file.toPath(), fileMessage.getContents());
+        if (fileMessage.getContents() != null)
+        {
+            Files.write(file.toPath(), fileMessage.getContents());
+            return;
+        }
+
+        if (Boolean.FALSE.equals(attachmentStates.get(fileMessage.getStoredName())))
+        {
+            throw new IOException("The upload of this file has failed");
+        }
+
+        try
+        {
+            TransferTicket ticket = administration.requestAttachmentDownload(sessionId, chatId, fileMessage.getStoredName());
+
+            if (ticket != null)
+            {
+                try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+                {
+                    FileTransferClient.download(ticket, fileChannel);
+                    return;
+                }
+                catch (IOException e)
+                {
+                    System.out.println("Client.Administration: data channel download failed, downloading through the server");
+                    e.printStackTrace();
+                }
+            }
+        }
+        catch (InvalidArgumentException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        try (OutputStream outputStream = Files.newOutputStream(file.toPath()))
+        {
+            long size = administration.getAttachmentSize(sessionId, chatId, fileMessage.getStoredName());
+
+            for (long offset = 0; offset < size; offset += IFileStorage.CHUNK_SIZE)
+            {
+                outputStream.write(administration.readAttachment(sessionId, chatId, fileMessage.getStoredName(), offset, IFileStorage.CHUNK_SIZE));
+            }
+        }
+        catch (InvalidArgumentException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
     }
 }
@@ -0,0 +1,253 @@
+package client.logic;
+
+import server.logic.IAdministration;
+import server.logic.NioProtocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls the administration over the framed protocol of NioProtocol instead of RMI. All calls share one connection,
+ * calls made by different threads at the same time are pipelined: they are all send before their responses arrive.
+ */
+class NioAdministrationClient implements InvocationHandler
+{
+    /**
+     * The connection with the server
+     */
+    private final SocketChannel channel;
+
+    /**
+     * Calls waiting for the body of their response, indexed by request id. Responses are decoded by the calling
+     * threads, so the reader thread only has to read
+     */
+    private final Map<Long, CompletableFuture<byte[]>> pendingCalls;
+
+    /**
+     * The id of the next request
+     */
+    private final AtomicLong nextRequestId;
+
+    /**
+     * A synchronizer object used to write one request at a time
+     */
+    private final Object writeSynchronizer;
+
+    /**
+     * Why the connection was lost, null while it is open
+     */
+    private volatile IOException connectionFailure;
+
+    /**
+     * The constructor of the client, connects to the server and starts reading responses
+     * @param host of the server
+     * @param port of the server
+     * @throws IOException if the server cannot be reached
+     */
+    private NioAdministrationClient(String host, int port) throws IOException
+    {
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        this.pendingCalls = new ConcurrentHashMap<>();
+        this.nextRequestId = new AtomicLong(1);
+        this.writeSynchronizer = new Object();
+
+        Thread reader = new Thread(this::readResponses, "nio-administration-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Connects to the server
+     * @param host of the server
+     * @param port of the server
+     * @return an administration object of which every method call is send to the server
+     * @throws IOException if the server cannot be reached
+     */
+    static IAdministration connect(String host, int port) throws IOException
+    {
+        return (IAdministration) Proxy.newProxyInstance(IAdministration.class.getClassLoader(),
+                new Class<?>[] { IAdministration.class }, new NioAdministrationClient(host, port));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        if (method.getDeclaringClass() == Object.class)
+        {
+            switch (method.getName())
+            {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "NioAdministrationClient[" + channel + "]";
+            }
+        }
+
+        NioProtocol.Response response = call(new NioProtocol.Request(NioProtocol.signature(method), args));
+        Throwable failure = response.getFailure();
+
+        if (failure == null)
+        {
+            return response.getResult();
+        }
+
+        if (failure instanceof RuntimeException || failure instanceof Error)
+        {
+            throw failure;
+        }
+
+        for (Class<?> exceptionType : method.getExceptionTypes())
+        {
+            if (exceptionType.isInstance(failure))
+            {
+                throw failure;
+            }
+        }
+
+        throw new RemoteException("Unexpected exception on the server", failure);
+    }
+
+    /**
+     * Sends a request and waits for its response
+     * @param request to be send
+     * @return the response of the server
+     * @throws RemoteException if the connection fails
+     */
+    private NioProtocol.Response call(NioProtocol.Request request) throws RemoteException
+    {
+        long requestId = nextRequestId.getAndIncrement();
+        CompletableFuture<byte[]> response = new CompletableFuture<>();
+        pendingCalls.put(requestId, response);
+
+        try
+        {
+            ByteBuffer frame = NioProtocol.encode(requestId, request);
+
+            synchronized (writeSynchronizer)
+            {
+                if (connectionFailure != null)
+                {
+                    throw connectionFailure;
+                }
+
+                while (frame.hasRemaining())
+                {
+                    channel.write(frame);
+                }
+            }
+
+            Object decoded = NioProtocol.decode(response.get());
+
+            if (!(decoded instanceof NioProtocol.Response))
+            {
+                throw new IOException("Frame does not contain a response");
+            }
+
+            return (NioProtocol.Response) decoded;
+        }
+        catch (IOException e)
+        {
+            pendingCalls.remove(requestId);
+            throw new RemoteException("Cannot call the server", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RemoteException("Connection to the server was lost", e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            pendingCalls.remove(requestId);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the server", e);
+        }
+    }
+
+    /**
+     * The loop of the reader thread, completes the pending call of every response
+     */
+    private void readResponses()
+    {
+        ByteBuffer header = ByteBuffer.allocate(NioProtocol.HEADER_SIZE);
+
+        try
+        {
+            while (true)
+            {
+                header.clear();
+                readFully(header);
+
+                int length = header.getInt(0);
+                long requestId = header.getLong(4);
+
+                if (length < 8 || length > NioProtocol.MAX_FRAME_SIZE)
+                {
+                    throw new IOException("Invalid frame length " + length);
+                }
+
+                ByteBuffer body = ByteBuffer.allocate(length - 8);
+                readFully(body);
+
+                CompletableFuture<byte[]> pendingCall = pendingCalls.remove(requestId);
+
+                if (pendingCall != null)
+                {
+                    pendingCall.complete(body.array());
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            synchronized (writeSynchronizer)
+            {
+                connectionFailure = e;
+            }
+
+            for (CompletableFuture<byte[]> pendingCall : pendingCalls.values())
+            {
+                pendingCall.completeExceptionally(e);
+            }
+            pendingCalls.clear();
+
+            try
+            {
+                channel.close();
+            }
+            catch (IOException closeFailure)
+            {
+                closeFailure.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Reads until the buffer is full
+     * @param buffer to be filled
+     * @throws IOException if the connection is closed before the buffer is full
+     */
+    private void readFully(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                throw new EOFException("Connection closed by server");
+            }
+        }
+    }
+}
@@ -2,8 +2,9 @@ package client.logic;
 
 import bootstrapper.ServerProgram;
 import server.logic.IAdministration;
-import shared.fontyspublisher.IRemotePublisherForListener;
+import server.logic.ITopicRouter;
 
+import java.io.IOException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
@@ -11,6 +12,11 @@ import java.rmi.registry.Registry;
 
 class ServerClient
 {
+    /**
+     * system property which selects the transport of the administration: rmi (the default) or nio
+     */
+    private static final String TRANSPORT_PROPERTY = "messenger.transport";
+
     /**
      * ip address of the server
      */
@@ -20,9 +26,9 @@ class ServerClient
      */
     private IAdministration administration;
     /**
-     * The publisher of the logged in client
+     * The router through which the client subscribes to changes
      */
-    private IRemotePublisherForListener clientPublisher;
+    private ITopicRouter topicRouter;
     /**
      * The registry which is located on the server
      */
@@ -43,7 +49,19 @@ class ServerClient
             e.printStackTrace();
         }
 
-        if (registry != null)
+        if (ServerProgram.TRANSPORT_NIO.equalsIgnoreCase(System.getProperty(TRANSPORT_PROPERTY)))
+        {
+            try
+            {
+                administration = NioAdministrationClient.connect(ipAddress, ServerProgram.NIO_PORT_NUMBER);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Client.ServerClient: cannot connect to NIO transport");
+                e.printStackTrace();
+            }
+        }
+        else if (registry != null)
         {
             try
             {
@@ -66,17 +84,16 @@ class ServerClient
     }
 
     /**
-     * Gets the publisher object of the server
-     * @param username of the logged in user
-     * @return a publisher object
+     * Gets the topic router of the server, which is shared by all users
+     * @return a topic router object
      */
-    public IRemotePublisherForListener getPublisher(String username)
+    public ITopicRouter getTopicRouter()
     {
-        if (clientPublisher == null)
+        if (topicRouter == null)
         {
             try
             {
-                clientPublisher = (IRemotePublisherForListener) registry.lookup(username);
+                topicRouter = (ITopicRouter) registry.lookup(ServerProgram.ROUTER_BINDING_NAME);
             }
             catch (RemoteException | NotBoundException e)
             {
@@ -84,6 +101,6 @@ class ServerClient
             }
         }
 
-        return clientPublisher;
+        return topicRouter;
     }
 }
@@ -10,8 +10,6 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
-import java.rmi.RemoteException;
-
 class AddContactScreen
 {
     private final Administration administration;
@@ -69,9 +67,21 @@ class AddContactScreen
     private void addContact(ActionEvent event)
     {
         String contactName = this.contactName.getText();
-        try
-        {
-            if (administration.addContact(contactName))
+        okButton.setDisable(true);
+
+        administration.addContactAsync(contactName).whenComplete((added, failure) -> {
+            okButton.setDisable(false);
+
+            if (failure instanceof IllegalArgumentException)
+            {
+                resultText.setText("You can't add yourself as a contact");
+                resultText.setTextFill(Color.RED);
+            }
+            else if (failure != null)
+            {
+                new ErrorScreen(primaryStage, String.format("Whoops, something went wrong in the connection.%nPlease check if you're still connected to the internet."));
+            }
+            else if (added)
             {
                 resultText.setText("Contact added");
                 resultText.setTextFill(Color.BLACK);
@@ -81,15 +91,6 @@ class AddContactScreen
                 resultText.setText("Contact does not exist is has already been added");
                 resultText.setTextFill(Color.RED);
             }
-        }
-        catch (RemoteException e)
-        {
-            new ErrorScreen(primaryStage, String.format("Whoops, something went wrong in the connection.%nPlease check if you're still connected to the internet."));
-        }
-        catch (IllegalArgumentException e)
-        {
-            resultText.setText("You can't add yourself as a contact");
-            resultText.setTextFill(Color.RED);
-        }
+        });
     }
 }
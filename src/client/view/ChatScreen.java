@@ -18,7 +18,6 @@ import shared.Message;
 import shared.SerializableChat;
 
 import java.io.File;
-import java.io.IOException;
 
 class ChatScreen
 {
@@ -27,12 +26,15 @@ class ChatScreen
 
     private SerializableChat chat;
     private final String chatName;
+    private final MapChangeListener<String, SerializableChat> chatListener;
+    private long readSequenceNumber;
 
     private ListView<Message> messageListView;
     private ListView<String> participants;
     private TextField messageField;
     private Button sendMessage;
     private Button sendFile;
+    private Button loadOlder;
 
     ChatScreen(Stage privateStage, Administration administration, String chatName)
     {
@@ -41,10 +43,18 @@ class ChatScreen
         this.chatName = chatName;
 
         this.chat = administration.getChatByName(chatName);
+        this.chatListener = this::chatChanged;
 
-        administration.getChatByName().addListener((MapChangeListener<String, SerializableChat>) change -> refreshContents());
+        administration.getChatByName().addListener(chatListener);
+        privateStage.setOnHidden(event -> detach());
 
         initializeViewObjects();
+        markRead();
+
+        if (chat != null && chat.getMessages().isEmpty())
+        {
+            administration.loadOlderMessagesAsync(chatName);
+        }
     }
 
     private void initializeViewObjects()
@@ -66,9 +76,13 @@ class ChatScreen
         sendFile = new Button("File");
         sendFile.setOnMouseClicked(mouseEvent -> sendFile());
 
+        loadOlder = new Button("Older");
+        loadOlder.setOnMouseClicked(mouseEvent -> administration.loadOlderMessagesAsync(chatName));
+
         refreshContents();
 
         gridPane.add(messageListView, 0, 0);
+        gridPane.add(loadOlder, 0, 1);
         gridPane.add(participants,1, 0);
         gridPane.add(sendFile, 1, 1);
         gridPane.add(messageField, 0, 2);
@@ -91,14 +105,10 @@ class ChatScreen
 
             if (file != null)
             {
-                try
-                {
-                    administration.getFile(fileMessage, file);
-                }
-                catch (IOException e)
-                {
+                administration.getFileAsync(chatName, fileMessage, file).exceptionally(failure -> {
                     new ErrorScreen(privateStage, String.format("Whoops, something went wrong while saving the file.%nFeel free to try again later."));
-                }
+                    return null;
+                });
             }
         }
     }
@@ -111,7 +121,10 @@ class ChatScreen
 
         if (file != null)
         {
-            administration.sendFile(chatName, file);
+            administration.sendFileAsync(chatName, file).exceptionally(failure -> {
+                new ErrorScreen(privateStage, String.format("Whoops, something went wrong while sending the file.%nFeel free to try again later."));
+                return null;
+            });
         }
     }
 
@@ -130,7 +143,21 @@ class ChatScreen
 
         if (message != null)
         {
-            administration.sendMessage(chatName, message);
+            administration.sendMessageAsync(chatName, message).exceptionally(failure -> {
+                new ErrorScreen(privateStage, String.format("Whoops, something went wrong while sending the message.%nFeel free to try again later."));
+                return null;
+            });
+        }
+    }
+
+    private void chatChanged(MapChangeListener.Change<? extends String, ? extends SerializableChat> change)
+    {
+        if (change.wasAdded() && chatName.equals(change.getKey()))
+        {
+            Platform.runLater(() -> {
+                refreshContents();
+                markRead();
+            });
         }
     }
 
@@ -138,15 +165,34 @@ class ChatScreen
     {
         chat = administration.getChatByName(chatName);
 
-        Platform.runLater(() -> {
-            participants.setItems(FXCollections.observableArrayList(chat.getParticipants()));
-            messageListView.setItems(FXCollections.observableArrayList(chat.getMessages()));
-            messageListView.scrollTo(messageListView.getItems().size() - 1);
-        });
+        if (chat == null)
+        {
+            return;
+        }
+
+        participants.setItems(FXCollections.observableArrayList(chat.getParticipants()));
+        messageListView.setItems(FXCollections.observableArrayList(chat.getMessages()));
+        messageListView.scrollTo(messageListView.getItems().size() - 1);
+        loadOlder.setDisable(!chat.hasOlderMessages());
+    }
+
+    private void markRead()
+    {
+        if (chat != null && privateStage.isShowing() && chat.getLastSequenceNumber() > readSequenceNumber)
+        {
+            readSequenceNumber = chat.getLastSequenceNumber();
+            administration.markChatReadAsync(chatName);
+        }
+    }
+
+    private void detach()
+    {
+        administration.getChatByName().removeListener(chatListener);
     }
 
     public void close()
     {
+        detach();
         privateStage.close();
     }
 }
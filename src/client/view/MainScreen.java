@@ -85,18 +85,15 @@ class MainScreen
 
             if (selectedItem != null)
             {
-                administration.newChat(selectedItem);
-
-                try
-                {
-                    Thread.sleep(50);
-                }
-                catch (InterruptedException e)
-                {
-                    e.printStackTrace();
-                }
-
-                chatScreens.add(new ChatScreen(new Stage(), administration, selectedItem));
+                administration.newChatAsync(selectedItem).whenComplete((ignored, failure) -> {
+                    if (failure != null)
+                    {
+                        new ErrorScreen(primaryStage, String.format("Whoops, something went wrong in the connection.%nPlease check if you're still connected to the internet."));
+                        return;
+                    }
+
+                    chatScreens.add(new ChatScreen(new Stage(), administration, selectedItem));
+                });
             }
         }
     }
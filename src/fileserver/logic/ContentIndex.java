@@ -0,0 +1,347 @@
+package fileserver.logic;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the names of stored files to the hash of their contents and counts how many names refer to each hash.
+ * Every change is appended to a journal, which is replayed when the file storage starts.
+ * Lookups do not lock, changes are serialized by the index itself. The journal is forced to disk outside of that
+ * lock, so concurrent changes share a single fsync.
+ */
+class ContentIndex
+{
+    /**
+     * Journal operation which binds a name to a hash
+     */
+    private static final byte OPERATION_BIND = 1;
+
+    /**
+     * Journal operation which removes a name
+     */
+    private static final byte OPERATION_UNBIND = 2;
+
+    /**
+     * The hash of the contents of every stored file, by name
+     */
+    private final Map<String, String> hashByName;
+
+    /**
+     * The amount of names referring to every hash
+     */
+    private final Map<String, Integer> referenceCounts;
+
+    /**
+     * The output stream of the journal
+     */
+    private final FileOutputStream journalStream;
+
+    /**
+     * Used to write journal entries
+     */
+    private final DataOutputStream journal;
+
+    /**
+     * Lock on which threads wait for the journal to be forced to disk
+     */
+    private final Object flushSynchronizer;
+
+    /**
+     * The length of the journal including the last written entry, guarded by this
+     */
+    private long writtenLength;
+
+    /**
+     * The length of the journal which is known to be forced to disk, guarded by the flush synchronizer
+     */
+    private long durableLength;
+
+    /**
+     * Whether a thread is forcing the journal to disk, guarded by the flush synchronizer
+     */
+    private boolean flushing;
+
+    /**
+     * The exception of a failed force, after which no more changes are accepted since earlier entries may be lost
+     */
+    private volatile IOException failure;
+
+    /**
+     * The constructor of the content index, replays the journal if it exists
+     * @param journalFile where changes to the index are stored
+     * @throws IOException if the journal cannot be read or opened
+     */
+    ContentIndex(Path journalFile) throws IOException
+    {
+        hashByName = new ConcurrentHashMap<>();
+        referenceCounts = new ConcurrentHashMap<>();
+
+        flushSynchronizer = new Object();
+
+        Files.createDirectories(journalFile.toAbsolutePath().getParent());
+        if (Files.exists(journalFile))
+        {
+            long validLength = replay(journalFile);
+            writtenLength = validLength;
+            durableLength = validLength;
+
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE))
+            {
+                channel.truncate(validLength);
+            }
+        }
+
+        journalStream = new FileOutputStream(journalFile.toFile(), true);
+        journal = new DataOutputStream(journalStream);
+    }
+
+    /**
+     * Gets the hash of the contents of a file
+     * @param name of the file
+     * @return the hash of the contents, null if no file by that name is stored
+     */
+    String getHash(String name)
+    {
+        return hashByName.get(name);
+    }
+
+    /**
+     * Checks if any name refers to the specified hash
+     * @param hash of the contents
+     * @return true if the contents are referred to, otherwise false
+     */
+    boolean isReferenced(String hash)
+    {
+        return referenceCounts.containsKey(hash);
+    }
+
+    /**
+     * Binds a name to a hash, a previous binding of the name is replaced
+     * @param name of the file
+     * @param hash of the contents of the file
+     * @return the hash which is no longer referred to by any name because of this change, otherwise null
+     * @throws IOException if the change cannot be written to the journal
+     */
+    String bind(String name, String hash) throws IOException
+    {
+        long length;
+        String orphanedHash;
+
+        synchronized (this)
+        {
+            length = write(OPERATION_BIND, name, hash);
+            orphanedHash = apply(name, hash);
+        }
+
+        awaitDurable(length);
+        return orphanedHash;
+    }
+
+    /**
+     * Removes the binding of a name
+     * @param name of the file
+     * @return the hash which is no longer referred to by any name because of this change, otherwise null
+     * @throws IOException if the change cannot be written to the journal
+     */
+    String unbind(String name) throws IOException
+    {
+        long length;
+        String orphanedHash;
+
+        synchronized (this)
+        {
+            if (!hashByName.containsKey(name))
+            {
+                return null;
+            }
+
+            length = write(OPERATION_UNBIND, name, null);
+            orphanedHash = apply(name, null);
+        }
+
+        awaitDurable(length);
+        return orphanedHash;
+    }
+
+    /**
+     * Applies a change to the in-memory index
+     * @param name of the file
+     * @param hash the name is bound to, null to remove the binding
+     * @return the hash which is no longer referred to by any name because of this change, otherwise null
+     */
+    private String apply(String name, String hash)
+    {
+        String previousHash = hash == null ? hashByName.remove(name) : hashByName.put(name, hash);
+
+        if (hash != null)
+        {
+            referenceCounts.merge(hash, 1, Integer::sum);
+        }
+
+        if (previousHash != null && referenceCounts.merge(previousHash, -1, Integer::sum) == 0)
+        {
+            referenceCounts.remove(previousHash);
+            return previousHash;
+        }
+
+        return null;
+    }
+
+    /**
+     * Appends an entry to the journal, the entry is not durable until awaitDurable returns for the returned length
+     * @param operation of the entry
+     * @param name of the file
+     * @param hash of the contents, null if the operation does not need one
+     * @return the length of the journal including the entry
+     * @throws IOException if the entry cannot be written or forcing the journal failed before
+     */
+    private long write(byte operation, String name, String hash) throws IOException
+    {
+        if (failure != null)
+        {
+            throw new IOException("The content index journal could not be forced to disk, no more changes are accepted", failure);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream entry = new DataOutputStream(bytes);
+        entry.writeByte(operation);
+        entry.writeUTF(name);
+        if (hash != null)
+        {
+            entry.writeUTF(hash);
+        }
+
+        journal.writeInt(bytes.size());
+        bytes.writeTo(journal);
+        journal.flush();
+
+        writtenLength += 4 + bytes.size();
+        return writtenLength;
+    }
+
+    /**
+     * Waits until the journal is forced to disk up to the specified length. If no other thread is forcing the journal,
+     * the calling thread forces every entry written so far, so concurrent changes share a single fsync.
+     * @param length of the journal including the entry to be waited for
+     * @throws IOException if the journal cannot be forced to disk
+     */
+    private void awaitDurable(long length) throws IOException
+    {
+        long target;
+
+        synchronized (flushSynchronizer)
+        {
+            while (flushing && durableLength < length)
+            {
+                try
+                {
+                    flushSynchronizer.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the content index journal", e);
+                }
+            }
+
+            if (durableLength >= length)
+            {
+                return;
+            }
+
+            if (failure != null)
+            {
+                throw new IOException("The content index journal could not be forced to disk", failure);
+            }
+
+            flushing = true;
+        }
+
+        synchronized (this)
+        {
+            target = writtenLength;
+        }
+
+        boolean forced = false;
+        try
+        {
+            journalStream.getChannel().force(false);
+            forced = true;
+        }
+        catch (IOException e)
+        {
+            failure = e;
+            throw e;
+        }
+        finally
+        {
+            synchronized (flushSynchronizer)
+            {
+                if (forced && target > durableLength)
+                {
+                    durableLength = target;
+                }
+                flushing = false;
+                flushSynchronizer.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Replays the journal, a partially written entry at the end is ignored
+     * @param journalFile to be replayed
+     * @return the length of the journal up to and including the last complete entry
+     * @throws IOException if the journal cannot be read
+     */
+    private long replay(Path journalFile) throws IOException
+    {
+        long validLength = 0;
+
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(journalFile));
+             DataInputStream input = new DataInputStream(inputStream))
+        {
+            int length;
+            while ((length = input.readInt()) >= 0)
+            {
+                byte[] bytes = new byte[length];
+                input.readFully(bytes);
+
+                DataInputStream entry = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte operation = entry.readByte();
+                String name = entry.readUTF();
+
+                if (operation == OPERATION_BIND)
+                {
+                    apply(name, entry.readUTF());
+                }
+                else if (operation == OPERATION_UNBIND)
+                {
+                    apply(name, null);
+                }
+                else
+                {
+                    throw new IOException("Corrupt content index journal");
+                }
+
+                validLength += 4 + bytes.length;
+            }
+        }
+        catch (EOFException ignored)
+        { }
+
+        return validLength;
+    }
+}
@@ -1,38 +1,148 @@
 package fileserver.logic;
 
-import java.io.File;
+import exceptions.InvalidArgumentException;
+
+import java.io.EOFException;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * The file storage part of the system
+ * The file storage part of the system. Files are stored once per unique contents, under the SHA-256 hash of
+ * their contents, and a reference-counted index maps the names of files to these hashes.
+ * Stored contents never change, so reads do not lock. Uploads are written to their own temporary file and
+ * atomically renamed into place, only the rename and the index update lock the stripe of the hash.
  */
 public class FileStorage extends UnicastRemoteObject implements IFileStorage
 {
     /**
-     * The prefix of the stored files location
+     * The prefix of the stored files location, files stored before content addressing was introduced are still read from here
      */
     private static final String PATH_PREFIX = "StoredFiles\\";
 
     /**
-     * A synchronizer object used to only allow the reading/writing of one file at a time
+     * The root directory of the content-addressed storage
+     */
+    private static final Path STORAGE_DIRECTORY = Paths.get("StoredFiles");
+
+    /**
+     * The directory where the contents of files are stored, by hash
+     */
+    private static final Path BLOB_DIRECTORY = STORAGE_DIRECTORY.resolve("blobs");
+
+    /**
+     * The directory where uploads are written until they are committed
+     */
+    private static final Path UPLOAD_DIRECTORY = STORAGE_DIRECTORY.resolve("uploads");
+
+    /**
+     * The algorithm used to address the contents of files
+     */
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    /**
+     * The amount of bytes received, hashed and written in one step of a transfer over the data channel
+     */
+    private static final int RECEIVE_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * A direct buffer per transfer thread, data received over the data channel is hashed while it is copied to the
+     * temporary file so it is never read back
+     */
+    private static final ThreadLocal<ByteBuffer> RECEIVE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE));
+
+    /**
+     * The amount of lock stripes, contents with hashes in the same stripe are committed and removed one at a time
+     */
+    private static final int STRIPE_COUNT = 64;
+
+    /**
+     * The maximum amount of read channels of stored contents which are kept open
      */
-    private final Object synchronizer;
+    private static final int MAX_OPEN_BLOBS = 256;
+
+    /**
+     * The lock stripes which guard the creation and removal of stored contents
+     */
+    private final Object[] stripes;
+
+    /**
+     * The mapping of file names to the hashes of their contents
+     */
+    private final ContentIndex contentIndex;
+
+    /**
+     * Open read channels of stored contents by hash in least recently used order, so popular files are served from
+     * one open copy. Guarded by itself
+     */
+    private final LinkedHashMap<String, OpenBlob> openBlobs;
+
+    /**
+     * The upload sessions which are not committed or aborted yet, by upload id
+     */
+    private final Map<Long, Upload> uploads;
+
+    /**
+     * The next available upload id
+     */
+    private final AtomicLong nextUploadId;
+
+    /**
+     * The data channel for transfers outside of RMI, null if it is not opened
+     */
+    private volatile FileTransferServer transferServer;
 
     /**
      * The constructor of the file storage object
      * @throws RemoteException if something goes wrong while initiating the server-side of the connection
+     * @throws IOException if the storage directories or the content index cannot be opened
      */
-    public FileStorage() throws RemoteException
+    public FileStorage() throws IOException
     {
         super();
 
-        synchronizer = new Object();
+        stripes = new Object[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++)
+        {
+            stripes[i] = new Object();
+        }
+
+        uploads = new ConcurrentHashMap<>();
+        openBlobs = new LinkedHashMap<>(16, 0.75f, true);
+        nextUploadId = new AtomicLong(1);
+
+        Files.createDirectories(BLOB_DIRECTORY);
+        Files.createDirectories(UPLOAD_DIRECTORY);
+        contentIndex = new ContentIndex(STORAGE_DIRECTORY.resolve("index.journal"));
+    }
+
+    /**
+     * Opens the data channel, after which tickets for transfers outside of RMI are handed out
+     * @param host under which clients reach the data channel
+     * @param port on which the data channel accepts connections
+     * @throws IOException if the data channel cannot be opened
+     */
+    public void openDataChannel(String host, int port) throws IOException
+    {
+        transferServer = new FileTransferServer(host, port);
     }
 
     /**
@@ -46,10 +156,7 @@ public class FileStorage extends UnicastRemoteObject implements IFileStorage
     {
         try
         {
-            synchronized (synchronizer)
-            {
-                return readAllData(new File(PATH_PREFIX + filename));
-            }
+            return Files.readAllBytes(resolve(filename));
         }
         catch (FileNotFoundException e)
         {
@@ -71,40 +178,635 @@ public class FileStorage extends UnicastRemoteObject implements IFileStorage
     @Override
     public void storeData(String filename, byte[] data)
     {
-        synchronized (synchronizer)
+        try
+        {
+            long uploadId = openUpload(filename);
+            Upload upload = getUpload(uploadId);
+
+            synchronized (upload)
+            {
+                upload.write(ByteBuffer.wrap(data));
+            }
+
+            commitUpload(uploadId);
+        }
+        catch (IOException | InvalidArgumentException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public long openUpload(String filename) throws RemoteException
+    {
+        long uploadId = nextUploadId.getAndIncrement();
+        Path temporaryFile = UPLOAD_DIRECTORY.resolve(uploadId + ".part");
+
+        try
+        {
+            FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            uploads.put(uploadId, new Upload(filename, temporaryFile, channel, MessageDigest.getInstance(HASH_ALGORITHM)));
+        }
+        catch (IOException | NoSuchAlgorithmException e)
+        {
+            throw new RemoteException("Cannot start the upload", e);
+        }
+
+        return uploadId;
+    }
+
+    @Override
+    public void writeChunk(long uploadId, long offset, byte[] chunk) throws RemoteException, InvalidArgumentException
+    {
+        if (chunk == null || chunk.length > CHUNK_SIZE)
+        {
+            throw new InvalidArgumentException(String.format("A chunk must contain at most %d bytes", CHUNK_SIZE));
+        }
+
+        Upload upload = getUpload(uploadId);
+
+        synchronized (upload)
+        {
+            if (offset != upload.size)
+            {
+                throw new InvalidArgumentException(String.format("Expected a chunk at offset %d", upload.size));
+            }
+
+            try
+            {
+                upload.write(ByteBuffer.wrap(chunk));
+            }
+            catch (IOException e)
+            {
+                throw new RemoteException("Cannot write the chunk", e);
+            }
+        }
+    }
+
+    @Override
+    public void commitUpload(long uploadId) throws RemoteException, InvalidArgumentException
+    {
+        Upload upload = getUpload(uploadId);
+        uploads.remove(uploadId);
+
+        synchronized (upload)
+        {
+            try
+            {
+                upload.channel.force(true);
+                upload.channel.close();
+
+                String hash = toHexString(upload.digest.digest());
+                Path blob = BLOB_DIRECTORY.resolve(hash);
+
+                String orphanedHash;
+                synchronized (stripe(hash))
+                {
+                    if (Files.exists(blob))
+                    {
+                        Files.delete(upload.temporaryFile);
+                    }
+                    else
+                    {
+                        Files.move(upload.temporaryFile, blob, StandardCopyOption.ATOMIC_MOVE);
+                    }
+
+                    orphanedHash = contentIndex.bind(upload.filename, hash);
+                }
+
+                release(orphanedHash);
+            }
+            catch (IOException e)
+            {
+                discard(upload);
+                throw new RemoteException("Cannot store the file", e);
+            }
+        }
+    }
+
+    @Override
+    public void abortUpload(long uploadId)
+    {
+        Upload upload = uploads.remove(uploadId);
+
+        if (upload != null)
+        {
+            synchronized (upload)
+            {
+                discard(upload);
+            }
+        }
+    }
+
+    @Override
+    public void deleteFile(String filename) throws RemoteException
+    {
+        try
+        {
+            release(contentIndex.unbind(filename));
+        }
+        catch (IOException e)
+        {
+            throw new RemoteException("Cannot delete the file", e);
+        }
+    }
+
+    @Override
+    public TransferTicket requestDownload(String filename) throws RemoteException, FileNotFoundException
+    {
+        FileTransferServer server = transferServer;
+        if (server == null)
+        {
+            return null;
+        }
+
+        Path path = resolve(filename);
+
+        try
+        {
+            return server.register(Files.size(path), channel -> {
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ))
+                {
+                    long length = file.size();
+                    long position = 0;
+                    while (position < length)
+                    {
+                        position += file.transferTo(position, length - position, channel);
+                    }
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            throw new RemoteException("Cannot read the file", e);
+        }
+    }
+
+    @Override
+    public TransferTicket requestUpload(long uploadId, long length) throws RemoteException, InvalidArgumentException
+    {
+        if (length < 0)
+        {
+            throw new InvalidArgumentException("The length of an upload cannot be negative");
+        }
+
+        Upload upload = getUpload(uploadId);
+        FileTransferServer server = transferServer;
+        if (server == null)
+        {
+            return null;
+        }
+
+        return server.register(length, channel -> {
+            synchronized (upload)
+            {
+                upload.receive(channel, length);
+            }
+
+            ByteBuffer status = ByteBuffer.allocate(1).put(0, FileTransferClient.STATUS_OK);
+            while (status.hasRemaining())
+            {
+                channel.write(status);
+            }
+        });
+    }
+
+    @Override
+    public long getFileSize(String filename) throws RemoteException, FileNotFoundException
+    {
+        try
+        {
+            String hash = contentIndex.getHash(filename);
+
+            if (hash == null)
+            {
+                return Files.size(resolve(filename));
+            }
+
+            OpenBlob blob = openBlob(hash, filename);
+            try
+            {
+                return blob.channel.size();
+            }
+            finally
+            {
+                closeBlob(blob);
+            }
+        }
+        catch (FileNotFoundException e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            throw new RemoteException("Cannot read the file", e);
+        }
+    }
+
+    @Override
+    public byte[] readRange(String filename, long offset, int length) throws RemoteException, FileNotFoundException
+    {
+        try
+        {
+            String hash = contentIndex.getHash(filename);
+
+            if (hash == null)
+            {
+                try (FileChannel channel = FileChannel.open(resolve(filename), StandardOpenOption.READ))
+                {
+                    return readRange(channel, offset, length);
+                }
+            }
+
+            OpenBlob blob = openBlob(hash, filename);
+            try
+            {
+                return readRange(blob.channel, offset, length);
+            }
+            finally
+            {
+                closeBlob(blob);
+            }
+        }
+        catch (FileNotFoundException e)
         {
-            writeAllData(new File(PATH_PREFIX + filename), data);
+            throw e;
+        }
+        catch (IOException e)
+        {
+            throw new RemoteException("Cannot read the file", e);
         }
     }
 
     /**
-     * reads all data of a specified file
-     * @param file to be read
-     * @return a byte array containing the data of the file
-     * @throws IOException if something goes wrong while reading the file
+     * Gets the location of the contents of a file
+     * @param filename of the file
+     * @return the path where the contents are stored
+     * @throws FileNotFoundException if the file was not found
      */
-    private byte[] readAllData(File file) throws IOException
+    private Path resolve(String filename) throws FileNotFoundException
     {
-        return Files.readAllBytes(Paths.get(file.toURI()));
+        String hash = contentIndex.getHash(filename);
+        Path path = hash != null ? BLOB_DIRECTORY.resolve(hash) : Paths.get(PATH_PREFIX + filename);
+
+        if (!Files.isRegularFile(path))
+        {
+            throw new FileNotFoundException(filename);
+        }
+
+        return path;
     }
 
     /**
-     * Writes all data of the specified file
-     * @param file where the data needs to be written
-     * @param data to be written
+     * Reads a part of a file, at most one chunk is read
+     * @param channel of the file
+     * @param offset of the first byte
+     * @param length maximum amount of bytes
+     * @return the bytes which were read, fewer than requested at the end of the file
+     * @throws IOException if the file cannot be read
      */
-    private void writeAllData(File file, byte[] data)
+    private static byte[] readRange(FileChannel channel, long offset, int length) throws IOException
     {
-        //noinspection ResultOfMethodCallIgnored
-        file.getParentFile().mkdirs();
+        int size = (int) Math.max(0, Math.min(Math.min(length, CHUNK_SIZE), channel.size() - offset));
+        ByteBuffer buffer = ByteBuffer.allocate(size);
 
-        try (FileOutputStream fileOutputStream = new FileOutputStream(file, false))
+        int read = 0;
+        while (buffer.hasRemaining() && read >= 0)
         {
-            fileOutputStream.write(data);
+            read = channel.read(buffer, offset + buffer.position());
+        }
+
+        return buffer.position() == size ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Takes a lease on an open read channel of stored contents, the channel is shared by all readers of the same
+     * contents and stays open until the lease is returned through closeBlob. A channel is only opened and cached
+     * under the lock stripe of its hash, so it cannot be cached again after the contents were released.
+     * @param hash of the contents
+     * @param filename of the file which refers to the contents
+     * @return the open contents, of which the channel may only be used for positional reads
+     * @throws IOException if the contents were not found or cannot be opened
+     */
+    private OpenBlob openBlob(String hash, String filename) throws IOException
+    {
+        OpenBlob blob = leaseBlob(hash);
+        if (blob != null)
+        {
+            return blob;
+        }
+
+        synchronized (stripe(hash))
+        {
+            blob = leaseBlob(hash);
+            if (blob != null)
+            {
+                return blob;
+            }
+
+            if (!contentIndex.isReferenced(hash))
+            {
+                throw new FileNotFoundException(filename);
+            }
+
+            try
+            {
+                blob = new OpenBlob(FileChannel.open(BLOB_DIRECTORY.resolve(hash), StandardOpenOption.READ));
+            }
+            catch (NoSuchFileException e)
+            {
+                throw new FileNotFoundException(filename);
+            }
+
+            synchronized (openBlobs)
+            {
+                blob.leases++;
+                openBlobs.put(hash, blob);
+
+                Iterator<OpenBlob> eldest = openBlobs.values().iterator();
+                while (openBlobs.size() > MAX_OPEN_BLOBS)
+                {
+                    eldest.next().remove();
+                    eldest.remove();
+                }
+            }
+
+            return blob;
+        }
+    }
+
+    /**
+     * Takes a lease on a cached read channel of stored contents
+     * @param hash of the contents
+     * @return the open contents, null if they are not cached
+     */
+    private OpenBlob leaseBlob(String hash)
+    {
+        synchronized (openBlobs)
+        {
+            OpenBlob blob = openBlobs.get(hash);
+            if (blob != null)
+            {
+                blob.leases++;
+            }
+            return blob;
+        }
+    }
+
+    /**
+     * Returns a lease taken by openBlob, the channel is closed if it is no longer cached and this was the last lease
+     * @param blob of which the lease is returned
+     */
+    private void closeBlob(OpenBlob blob)
+    {
+        synchronized (openBlobs)
+        {
+            blob.leases--;
+            blob.closeIfUnused();
+        }
+    }
+
+    /**
+     * Removes contents which are no longer referred to by any file, unless a commit referred to them again in the meantime
+     * @param hash of the contents, nothing happens if null
+     * @throws IOException if the contents cannot be removed
+     */
+    private void release(String hash) throws IOException
+    {
+        if (hash == null)
+        {
+            return;
+        }
+
+        synchronized (stripe(hash))
+        {
+            if (contentIndex.isReferenced(hash))
+            {
+                return;
+            }
+
+            synchronized (openBlobs)
+            {
+                OpenBlob blob = openBlobs.remove(hash);
+                if (blob != null)
+                {
+                    blob.remove();
+                }
+            }
+
+            Files.deleteIfExists(BLOB_DIRECTORY.resolve(hash));
+        }
+    }
+
+    /**
+     * Gets the lock stripe of stored contents
+     * @param hash of the contents
+     * @return the object to synchronize on
+     */
+    private Object stripe(String hash)
+    {
+        return stripes[Math.floorMod(hash.hashCode(), STRIPE_COUNT)];
+    }
+
+    /**
+     * Gets an upload session which is not committed or aborted yet
+     * @param uploadId of the upload session
+     * @return the upload session
+     * @throws InvalidArgumentException if no such upload session exists
+     */
+    private Upload getUpload(long uploadId) throws InvalidArgumentException
+    {
+        Upload upload = uploads.get(uploadId);
+
+        if (upload == null)
+        {
+            throw new InvalidArgumentException("Upload not found");
+        }
+
+        return upload;
+    }
+
+    /**
+     * Closes an upload session and removes its temporary file
+     * @param upload session to be discarded
+     */
+    private void discard(Upload upload)
+    {
+        try
+        {
+            upload.channel.close();
+            Files.deleteIfExists(upload.temporaryFile);
         }
         catch (IOException e)
         {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Converts a hash to its hexadecimal representation
+     * @param hash to be converted
+     * @return a string containing two hexadecimal characters per byte
+     */
+    private static String toHexString(byte[] hash)
+    {
+        StringBuilder returnable = new StringBuilder(hash.length * 2);
+
+        for (byte b : hash)
+        {
+            returnable.append(String.format("%02x", b));
+        }
+
+        return returnable.toString();
+    }
+
+    /**
+     * A cached read channel of stored contents and the readers which use it
+     */
+    private static class OpenBlob
+    {
+        /**
+         * the channel of the contents, only used for positional reads
+         */
+        private final FileChannel channel;
+
+        /**
+         * the amount of readers which use the channel, guarded by the cache
+         */
+        private int leases;
+
+        /**
+         * whether the channel was removed from the cache, guarded by the cache
+         */
+        private boolean removed;
+
+        /**
+         * The constructor of the open contents
+         * @param channel of the contents
+         */
+        OpenBlob(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        /**
+         * Marks the channel as removed from the cache and closes it if no reader uses it, must hold the lock of the cache
+         */
+        void remove()
+        {
+            removed = true;
+            closeIfUnused();
+        }
+
+        /**
+         * Closes the channel if it was removed from the cache and no reader uses it, must hold the lock of the cache
+         */
+        void closeIfUnused()
+        {
+            if (!removed || leases > 0)
+            {
+                return;
+            }
+
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * An upload session which writes the chunks of a file to a temporary file
+     */
+    private static class Upload
+    {
+        /**
+         * the name under which the file is stored once the upload is committed
+         */
+        private final String filename;
+
+        /**
+         * the temporary file the chunks are written to
+         */
+        private final Path temporaryFile;
+
+        /**
+         * the channel used to write to the temporary file
+         */
+        private final FileChannel channel;
+
+        /**
+         * the hash of the data written so far
+         */
+        private final MessageDigest digest;
+
+        /**
+         * the amount of bytes written so far
+         */
+        private long size;
+
+        /**
+         * The constructor of the upload session
+         * @param filename under which the file is stored once the upload is committed
+         * @param temporaryFile the chunks are written to
+         * @param channel used to write to the temporary file
+         * @param digest used to hash the data
+         */
+        Upload(String filename, Path temporaryFile, FileChannel channel, MessageDigest digest)
+        {
+            this.filename = filename;
+            this.temporaryFile = temporaryFile;
+            this.channel = channel;
+            this.digest = digest;
+        }
+
+        /**
+         * Writes data to the end of the temporary file and adds it to the hash
+         * @param data to be written
+         * @throws IOException if the data cannot be written
+         */
+        void write(ByteBuffer data) throws IOException
+        {
+            digest.update(data.duplicate());
+
+            while (data.hasRemaining())
+            {
+                size += channel.write(data, size);
+            }
+        }
+
+        /**
+         * Copies data from a channel to the end of the temporary file through a direct buffer, the data is hashed
+         * on the way so it is not read back from the file
+         * @param source of the data
+         * @param length amount of bytes to be received
+         * @throws IOException if the data cannot be received or the source ends early
+         */
+        void receive(ReadableByteChannel source, long length) throws IOException
+        {
+            ByteBuffer buffer = RECEIVE_BUFFER.get();
+            long end = size + length;
+
+            while (size < end)
+            {
+                buffer.clear();
+                if (end - size < buffer.capacity())
+                {
+                    buffer.limit((int) (end - size));
+                }
+
+                if (source.read(buffer) < 0)
+                {
+                    throw new EOFException("The connection was closed before all data was received");
+                }
+
+                buffer.flip();
+                write(buffer);
+            }
+        }
+    }
 }
@@ -0,0 +1,136 @@
+package fileserver.logic;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Performs transfers over the data channel of the file server with the tickets handed out by the file storage
+ */
+public class FileTransferClient
+{
+    /**
+     * The status byte the file server sends once uploaded data is written
+     */
+    static final byte STATUS_OK = 1;
+
+    /**
+     * Not used, all methods are static
+     */
+    private FileTransferClient()
+    { }
+
+    /**
+     * Downloads a file into a file channel, the data is moved from the socket to the file without passing through the heap
+     * @param ticket obtained by requesting the download
+     * @param target where the file is written to, starting at position 0
+     * @throws IOException if the connection fails or closes before the whole file was received
+     */
+    public static void download(TransferTicket ticket, FileChannel target) throws IOException
+    {
+        try (SocketChannel channel = connect(ticket))
+        {
+            long position = 0;
+            while (position < ticket.getLength())
+            {
+                long transferred = target.transferFrom(channel, position, ticket.getLength() - position);
+                if (transferred <= 0)
+                {
+                    throw new EOFException("The file server closed the connection");
+                }
+
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * Uploads data, the upload session of the ticket still has to be committed afterwards
+     * @param ticket obtained by requesting the upload
+     * @param data to be uploaded, exactly as many bytes as the length of the ticket
+     * @throws IOException if the connection fails or the file server did not confirm the data was written
+     */
+    public static void upload(TransferTicket ticket, ByteBuffer data) throws IOException
+    {
+        try (SocketChannel channel = connect(ticket))
+        {
+            while (data.hasRemaining())
+            {
+                channel.write(data);
+            }
+
+            awaitStatus(channel);
+        }
+    }
+
+    /**
+     * Uploads a file out of a file channel, the data is moved from the file to the socket without passing through
+     * the heap, the upload session of the ticket still has to be committed afterwards
+     * @param ticket obtained by requesting the upload
+     * @param source to be uploaded, starting at position 0 and exactly as many bytes as the length of the ticket
+     * @throws IOException if the connection fails, the file is too short or the file server did not confirm the data was written
+     */
+    public static void upload(TransferTicket ticket, FileChannel source) throws IOException
+    {
+        try (SocketChannel channel = connect(ticket))
+        {
+            long position = 0;
+            while (position < ticket.getLength())
+            {
+                long transferred = source.transferTo(position, ticket.getLength() - position, channel);
+                if (transferred <= 0)
+                {
+                    throw new EOFException("The file is shorter than the upload");
+                }
+
+                position += transferred;
+            }
+
+            awaitStatus(channel);
+        }
+    }
+
+    /**
+     * Waits for the status byte which the file server sends once the uploaded data is written
+     * @param channel of the upload
+     * @throws IOException if the file server did not confirm the data was written
+     */
+    private static void awaitStatus(SocketChannel channel) throws IOException
+    {
+        ByteBuffer status = ByteBuffer.allocate(1);
+        if (channel.read(status) < 1 || status.get(0) != STATUS_OK)
+        {
+            throw new IOException("The file server did not store the data");
+        }
+    }
+
+    /**
+     * Opens a connection to the data channel and sends the token of a ticket
+     * @param ticket of the transfer
+     * @return the connected channel
+     * @throws IOException if the connection cannot be made
+     */
+    private static SocketChannel connect(TransferTicket ticket) throws IOException
+    {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(ticket.getHost(), ticket.getPort()));
+
+        try
+        {
+            ByteBuffer token = ByteBuffer.allocate(Long.BYTES).putLong(0, ticket.getToken());
+            while (token.hasRemaining())
+            {
+                channel.write(token);
+            }
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+}
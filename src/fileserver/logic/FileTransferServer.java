@@ -0,0 +1,351 @@
+package fileserver.logic;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The data channel of the file server. Files are transferred over plain sockets straight between the file system
+ * and the network, a client first obtains a ticket through the file storage and then sends its token on a new connection.
+ * Tokens are read by a selector, so a connection only gets a transfer thread once it sent a valid token.
+ */
+class FileTransferServer
+{
+    /**
+     * The time in milliseconds a ticket may be used after it was handed out
+     */
+    private static final long TICKET_TIMEOUT = 60_000;
+
+    /**
+     * The maximum amount of transfers running at the same time
+     */
+    private static final int MAX_CONCURRENT_TRANSFERS = 32;
+
+    /**
+     * The time in milliseconds a new connection may take to send its token before it is closed
+     */
+    private static final long TOKEN_TIMEOUT = 5_000;
+
+    /**
+     * The host under which clients reach the data channel
+     */
+    private final String host;
+
+    /**
+     * The socket on which connections are accepted
+     */
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * The selector which accepts connections and reads their tokens
+     */
+    private final Selector selector;
+
+    /**
+     * Thread pool which performs the transfers
+     */
+    private final ExecutorService transferExecutor;
+
+    /**
+     * Transfers for which a ticket was handed out but no connection was made yet, by token
+     */
+    private final Map<Long, PendingTransfer> pendingTransfers;
+
+    /**
+     * Generates the tokens of the tickets, so tokens cannot be guessed
+     */
+    private final SecureRandom random;
+
+    /**
+     * The constructor of the data channel, starts accepting connections
+     * @param host under which clients reach the data channel
+     * @param port on which connections are accepted
+     * @throws IOException if the socket cannot be opened
+     */
+    FileTransferServer(String host, int port) throws IOException
+    {
+        this.host = host;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        pendingTransfers = new ConcurrentHashMap<>();
+        random = new SecureRandom();
+        transferExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_TRANSFERS, runnable -> {
+            Thread thread = new Thread(runnable, "file-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread acceptor = new Thread(this::acceptConnections, "file-transfer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Hands out a ticket for a transfer
+     * @param length amount of bytes which are transferred
+     * @param transfer performed once a connection with the token of the ticket is made
+     * @return the ticket of the transfer
+     */
+    TransferTicket register(long length, Transfer transfer)
+    {
+        long now = System.currentTimeMillis();
+        pendingTransfers.values().removeIf(pendingTransfer -> pendingTransfer.expiresAt < now);
+
+        long token;
+        do
+        {
+            token = random.nextLong();
+        }
+        while (pendingTransfers.putIfAbsent(token, new PendingTransfer(transfer, now + TICKET_TIMEOUT)) != null);
+
+        return new TransferTicket(host, serverChannel.socket().getLocalPort(), token, length);
+    }
+
+    /**
+     * Accepts connections and reads their tokens until the socket is closed, connections which do not send their
+     * token in time are closed
+     */
+    private void acceptConnections()
+    {
+        while (serverChannel.isOpen())
+        {
+            try
+            {
+                selector.select(TOKEN_TIMEOUT);
+
+                List<SelectionKey> completed = new ArrayList<>();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (key.isValid() && key.isAcceptable())
+                    {
+                        accept();
+                    }
+                    else if (key.isValid() && key.isReadable() && readToken(key))
+                    {
+                        completed.add(key);
+                    }
+                }
+
+                closeExpiredHandshakes();
+
+                if (!completed.isEmpty())
+                {
+                    // Cancelled keys are only deregistered by the next selection, a channel must be deregistered
+                    // before it can be switched back to blocking mode
+                    selector.selectNow();
+                    for (SelectionKey key : completed)
+                    {
+                        dispatch((SocketChannel) key.channel(), ((Handshake) key.attachment()).token.getLong(0));
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Accepts a waiting connection and starts reading its token
+     * @throws IOException if the connection cannot be registered
+     */
+    private void accept() throws IOException
+    {
+        SocketChannel connection = serverChannel.accept();
+        if (connection == null)
+        {
+            return;
+        }
+
+        connection.configureBlocking(false);
+        connection.register(selector, SelectionKey.OP_READ, new Handshake(System.currentTimeMillis() + TOKEN_TIMEOUT));
+    }
+
+    /**
+     * Reads the available bytes of the token of a connection
+     * @param key of the connection
+     * @return true if the token is complete and the key is cancelled, otherwise false
+     */
+    private boolean readToken(SelectionKey key)
+    {
+        Handshake handshake = (Handshake) key.attachment();
+
+        try
+        {
+            if (((SocketChannel) key.channel()).read(handshake.token) < 0)
+            {
+                close(key);
+                return false;
+            }
+        }
+        catch (IOException e)
+        {
+            close(key);
+            return false;
+        }
+
+        if (handshake.token.hasRemaining())
+        {
+            return false;
+        }
+
+        key.cancel();
+        return true;
+    }
+
+    /**
+     * Closes the connections which did not send their token in time
+     */
+    private void closeExpiredHandshakes()
+    {
+        long now = System.currentTimeMillis();
+
+        for (SelectionKey key : selector.keys())
+        {
+            if (key.isValid() && key.attachment() instanceof Handshake && ((Handshake) key.attachment()).expiresAt < now)
+            {
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection of a key
+     * @param key of the connection
+     */
+    private static void close(SelectionKey key)
+    {
+        key.cancel();
+
+        try
+        {
+            key.channel().close();
+        }
+        catch (IOException ignored)
+        { }
+    }
+
+    /**
+     * Performs the transfer of a token on the transfer thread pool, the connection is closed if the token is not
+     * valid and after the transfer
+     * @param connection which sent the token
+     * @param token of the ticket
+     */
+    private void dispatch(SocketChannel connection, long token)
+    {
+        PendingTransfer pendingTransfer = pendingTransfers.remove(token);
+
+        try
+        {
+            if (pendingTransfer == null || pendingTransfer.expiresAt < System.currentTimeMillis())
+            {
+                connection.close();
+                return;
+            }
+
+            connection.configureBlocking(true);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+
+        transferExecutor.execute(() -> {
+            try (SocketChannel channel = connection)
+            {
+                pendingTransfer.transfer.perform(channel);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * The work done on the connection of a ticket
+     */
+    interface Transfer
+    {
+        /**
+         * Performs the transfer
+         * @param channel of the connection, after the token was read
+         * @throws IOException if the transfer fails
+         */
+        void perform(SocketChannel channel) throws IOException;
+    }
+
+    /**
+     * The token of a new connection which is being read
+     */
+    private static class Handshake
+    {
+        /**
+         * the bytes of the token read so far
+         */
+        private final ByteBuffer token;
+
+        /**
+         * the time in milliseconds after which the connection is closed if the token is not complete
+         */
+        private final long expiresAt;
+
+        /**
+         * Constructor of the handshake
+         * @param expiresAt time in milliseconds after which the connection is closed if the token is not complete
+         */
+        Handshake(long expiresAt)
+        {
+            this.token = ByteBuffer.allocate(Long.BYTES);
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * A transfer waiting for its connection
+     */
+    private static class PendingTransfer
+    {
+        /**
+         * the work done once the connection is made
+         */
+        private final Transfer transfer;
+
+        /**
+         * the time in milliseconds after which the ticket is no longer valid
+         */
+        private final long expiresAt;
+
+        /**
+         * Constructor of the pending transfer
+         * @param transfer done once the connection is made
+         * @param expiresAt time in milliseconds after which the ticket is no longer valid
+         */
+        PendingTransfer(Transfer transfer, long expiresAt)
+        {
+            this.transfer = transfer;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package fileserver.logic;
 
+import exceptions.InvalidArgumentException;
+
 import java.io.FileNotFoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 public interface IFileStorage extends Remote
 {
+    /**
+     * The maximum size of a chunk which is written or read in a single call
+     */
+    int CHUNK_SIZE = 1024 * 1024;
+
     /**
      * Gets a file of the file storage
      * @param filename of the file to be retrieved
@@ -22,4 +29,84 @@ public interface IFileStorage extends Remote
      * @throws RemoteException if something goes wrong in the connection
      */
     void storeData(String filename, byte[] data) throws RemoteException;
+
+    /**
+     * Opens an upload session for a file, the file is only visible once the upload is committed
+     * @param filename of the file to be stored
+     * @return the id of the upload session
+     * @throws RemoteException if something goes wrong in the connection or the upload cannot be started
+     */
+    long openUpload(String filename) throws RemoteException;
+
+    /**
+     * Writes the next chunk of an upload
+     * @param uploadId of the upload session
+     * @param offset of the chunk within the file, must be equal to the amount of bytes written so far
+     * @param chunk the data to be written, at most CHUNK_SIZE bytes
+     * @throws RemoteException if something goes wrong in the connection or the chunk cannot be written
+     * @throws InvalidArgumentException if the upload does not exist, the offset is wrong or the chunk is too large
+     */
+    void writeChunk(long uploadId, long offset, byte[] chunk) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Commits an upload, which makes the file available under its filename
+     * @param uploadId of the upload session
+     * @throws RemoteException if something goes wrong in the connection or the file cannot be stored
+     * @throws InvalidArgumentException if the upload does not exist
+     */
+    void commitUpload(long uploadId) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Aborts an upload, all data written so far is discarded
+     * @param uploadId of the upload session
+     * @throws RemoteException if something goes wrong in the connection
+     */
+    void abortUpload(long uploadId) throws RemoteException;
+
+    /**
+     * Hands out a ticket to download a whole file over the data channel of the file server
+     * @param filename of the file
+     * @return a ticket which is valid for a single connection, null if the file server has no data channel
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws FileNotFoundException if the file was not found
+     */
+    TransferTicket requestDownload(String filename) throws RemoteException, FileNotFoundException;
+
+    /**
+     * Hands out a ticket to send the next bytes of an upload over the data channel of the file server,
+     * the upload still has to be committed once the transfer is done
+     * @param uploadId of the upload session
+     * @param length amount of bytes which are send
+     * @return a ticket which is valid for a single connection, null if the file server has no data channel
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if the upload does not exist or the length is negative
+     */
+    TransferTicket requestUpload(long uploadId, long length) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Deletes a file, its contents are removed once no other file has the same contents
+     * @param filename of the file to be deleted
+     * @throws RemoteException if something goes wrong in the connection or the file cannot be deleted
+     */
+    void deleteFile(String filename) throws RemoteException;
+
+    /**
+     * Gets the size of a file of the file storage
+     * @param filename of the file
+     * @return the size of the file in bytes
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws FileNotFoundException if the file was not found
+     */
+    long getFileSize(String filename) throws RemoteException, FileNotFoundException;
+
+    /**
+     * Reads a range of bytes of a file of the file storage
+     * @param filename of the file
+     * @param offset of the first byte to be read
+     * @param length maximum amount of bytes to be read, at most CHUNK_SIZE bytes are returned
+     * @return a byte array containing the data, shorter than length if the end of the file was reached
+     * @throws RemoteException if something goes wrong in the connection or the file cannot be read
+     * @throws FileNotFoundException if the file was not found
+     */
+    byte[] readRange(String filename, long offset, int length) throws RemoteException, FileNotFoundException;
 }
@@ -0,0 +1,80 @@
+package fileserver.logic;
+
+import java.io.Serializable;
+
+/**
+ * Permission to perform a single transfer over the data channel of the file server, obtained through the file storage
+ */
+public class TransferTicket implements Serializable
+{
+    /**
+     * the host of the data channel
+     */
+    private final String host;
+
+    /**
+     * the port of the data channel
+     */
+    private final int port;
+
+    /**
+     * the secret which identifies the transfer, only valid for a single connection
+     */
+    private final long token;
+
+    /**
+     * the amount of bytes which are transferred
+     */
+    private final long length;
+
+    /**
+     * Constructor of the transfer ticket
+     * @param host of the data channel
+     * @param port of the data channel
+     * @param token which identifies the transfer
+     * @param length amount of bytes which are transferred
+     */
+    TransferTicket(String host, int port, long token, long length)
+    {
+        this.host = host;
+        this.port = port;
+        this.token = token;
+        this.length = length;
+    }
+
+    /**
+     * gets the host of the data channel
+     * @return a string containing the host name or address
+     */
+    public String getHost()
+    {
+        return host;
+    }
+
+    /**
+     * gets the port of the data channel
+     * @return an int value containing the port number
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * gets the token of the transfer
+     * @return a long value which is send as the first bytes on the connection
+     */
+    public long getToken()
+    {
+        return token;
+    }
+
+    /**
+     * gets the length of the transfer
+     * @return a long value containing the amount of bytes which are transferred
+     */
+    public long getLength()
+    {
+        return length;
+    }
+}
@@ -0,0 +1,139 @@
+package server.logic;
+
+import fileserver.logic.FileTransferClient;
+import fileserver.logic.IFileStorage;
+import fileserver.logic.TransferTicket;
+
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Stores attachments on the file storage in the background, so sending a file does not wait for the upload
+ */
+class AttachmentPipeline
+{
+    /**
+     * Thread pool which performs the uploads, its size limits the amount of concurrent uploads
+     */
+    private final ExecutorService uploadExecutor;
+
+    /**
+     * One permit per byte of the uploads which are running or waiting, limits the attachment data held in memory
+     */
+    private final Semaphore pendingBytes;
+
+    /**
+     * The constructor of the attachment pipeline
+     * @param maxConcurrentUploads maximum amount of uploads running at the same time
+     * @param maxPendingBytes maximum amount of bytes of the uploads running or waiting to be run
+     */
+    AttachmentPipeline(int maxConcurrentUploads, int maxPendingBytes)
+    {
+        uploadExecutor = Executors.newFixedThreadPool(maxConcurrentUploads, runnable -> {
+            Thread thread = new Thread(runnable, "attachment-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pendingBytes = new Semaphore(maxPendingBytes);
+    }
+
+    /**
+     * Reserves room for an upload, must be called before the upload is submitted
+     * @param size of the attachment in bytes
+     * @throws RemoteException if too much attachment data is pending
+     */
+    void reserve(int size) throws RemoteException
+    {
+        if (!pendingBytes.tryAcquire(size))
+        {
+            throw new RemoteException("Too many attachments are being uploaded, please try again later");
+        }
+    }
+
+    /**
+     * Releases room which was reserved for an upload that will not be submitted
+     * @param size of the attachment in bytes, as passed to reserve
+     */
+    void release(int size)
+    {
+        pendingBytes.release(size);
+    }
+
+    /**
+     * Submits a reserved upload
+     * @param fileStorage where the attachment is stored
+     * @param storedName under which the attachment is stored
+     * @param contents of the attachment
+     * @return a future which completes once the attachment is stored
+     */
+    CompletableFuture<Void> submit(IFileStorage fileStorage, String storedName, byte[] contents)
+    {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+
+        uploadExecutor.execute(() -> {
+            try
+            {
+                if (fileStorage == null)
+                {
+                    throw new RemoteException("File storage is not available");
+                }
+
+                upload(fileStorage, storedName, contents);
+                result.complete(null);
+            }
+            catch (Exception e)
+            {
+                result.completeExceptionally(e);
+            }
+            finally
+            {
+                pendingBytes.release(contents.length);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Uploads an attachment to the data channel of the file storage, or in chunks if it has no data channel,
+     * so no single RMI call transfers more than a chunk
+     * @param fileStorage where the attachment is stored
+     * @param storedName under which the attachment is stored
+     * @param contents of the attachment
+     * @throws Exception if the attachment cannot be stored, the partial upload is aborted
+     */
+    private void upload(IFileStorage fileStorage, String storedName, byte[] contents) throws Exception
+    {
+        long uploadId = fileStorage.openUpload(storedName);
+
+        try
+        {
+            TransferTicket ticket = fileStorage.requestUpload(uploadId, contents.length);
+
+            if (ticket != null)
+            {
+                FileTransferClient.upload(ticket, ByteBuffer.wrap(contents));
+                fileStorage.commitUpload(uploadId);
+                return;
+            }
+
+            for (int offset = 0; offset < contents.length; offset += IFileStorage.CHUNK_SIZE)
+            {
+                int end = Math.min(contents.length, offset + IFileStorage.CHUNK_SIZE);
+                fileStorage.writeChunk(uploadId, offset, Arrays.copyOfRange(contents, offset, end));
+            }
+
+            fileStorage.commitUpload(uploadId);
+        }
+        catch (Exception e)
+        {
+            fileStorage.abortUpload(uploadId);
+            throw e;
+        }
+    }
+}
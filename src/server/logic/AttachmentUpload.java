@@ -0,0 +1,121 @@
+package server.logic;
+
+import exceptions.InvalidArgumentException;
+import fileserver.logic.IFileStorage;
+import fileserver.logic.TransferTicket;
+import shared.FileMessage;
+
+import java.rmi.RemoteException;
+
+/**
+ * An attachment which a client uploads to the file storage in chunks or over the data channel, the file message
+ * which refers to it is only send in its chat once the upload is committed
+ */
+class AttachmentUpload
+{
+    /**
+     * the chat the attachment is send in
+     */
+    private final Chat chat;
+
+    /**
+     * the file storage the attachment is uploaded to
+     */
+    private final IFileStorage fileStorage;
+
+    /**
+     * the id of the upload session on the file storage
+     */
+    private final long uploadId;
+
+    /**
+     * the name under which the attachment is stored
+     */
+    private final String storedName;
+
+    /**
+     * the name of the file as chosen by the client
+     */
+    private final String filename;
+
+    /**
+     * The constructor of the attachment upload
+     * @param chat the attachment is send in
+     * @param fileStorage the attachment is uploaded to
+     * @param uploadId of the upload session on the file storage
+     * @param storedName under which the attachment is stored
+     * @param filename of the file as chosen by the client
+     */
+    AttachmentUpload(Chat chat, IFileStorage fileStorage, long uploadId, String storedName, String filename)
+    {
+        this.chat = chat;
+        this.fileStorage = fileStorage;
+        this.uploadId = uploadId;
+        this.storedName = storedName;
+        this.filename = filename;
+    }
+
+    /**
+     * gets the id of the upload session on the file storage
+     * @return the upload id
+     */
+    long getUploadId()
+    {
+        return uploadId;
+    }
+
+    /**
+     * gets the chat the attachment is send in
+     * @return the chat
+     */
+    Chat getChat()
+    {
+        return chat;
+    }
+
+    /**
+     * Writes the next chunk of the attachment
+     * @param offset of the chunk within the attachment, must be the amount of bytes written so far
+     * @param chunk the data to be written, at most CHUNK_SIZE bytes
+     * @throws RemoteException if something goes wrong in writing the chunk
+     * @throws InvalidArgumentException if the chunk is too large or not at the expected offset
+     */
+    void writeChunk(long offset, byte[] chunk) throws RemoteException, InvalidArgumentException
+    {
+        fileStorage.writeChunk(uploadId, offset, chunk);
+    }
+
+    /**
+     * Hands out a ticket to upload the rest of the attachment over the data channel of the file storage
+     * @param length the amount of bytes which will be uploaded
+     * @return a ticket, null if the file storage has no data channel
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     * @throws InvalidArgumentException if the length is negative
+     */
+    TransferTicket requestTicket(long length) throws RemoteException, InvalidArgumentException
+    {
+        return fileStorage.requestUpload(uploadId, length);
+    }
+
+    /**
+     * Stores the uploaded attachment and sends a file message which refers to it in the chat
+     * @param author of the file message
+     * @return the sequence number of the file message
+     * @throws RemoteException if the attachment cannot be stored or the message cannot be send
+     * @throws InvalidArgumentException if the upload does not exist anymore
+     */
+    long commit(String author) throws RemoteException, InvalidArgumentException
+    {
+        fileStorage.commitUpload(uploadId);
+        return chat.sendMessage(new FileMessage(null, filename, author).withoutContents(storedName));
+    }
+
+    /**
+     * Discards the data uploaded so far
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     */
+    void abort() throws RemoteException
+    {
+        fileStorage.abortUpload(uploadId);
+    }
+}
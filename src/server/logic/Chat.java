@@ -1,15 +1,32 @@
 package server.logic;
 
 import fileserver.logic.IFileStorage;
+import fileserver.logic.TransferTicket;
+import shared.AttachmentStoredEvent;
+import shared.ChatHistoryPage;
+import shared.ChatSummary;
+import shared.EncodedPayload;
 import shared.SerializableChat;
 import shared.FileMessage;
 import shared.Message;
+import shared.MessageAppendedEvent;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -27,21 +44,73 @@ class Chat
      */
     private static final AtomicLong nextChatId = new AtomicLong(0);
 
+    /**
+     * the maximum amount of messages appended to the message log before waiting for them to become durable
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * the maximum amount of attachment data send inside file messages which is held in memory until it is stored
+     */
+    private static final int MAX_PENDING_ATTACHMENT_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Pipeline shared by all chats to store attachments in the background
+     */
+    private static final AttachmentPipeline attachmentPipeline = new AttachmentPipeline(4, MAX_PENDING_ATTACHMENT_BYTES);
+
+    /**
+     * Thread pool shared by all chats to process their mailboxes, a chat is processed by at most one thread at a time
+     */
+    private static final ExecutorService mailboxExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors() * 2,
+            runnable -> {
+                Thread thread = new Thread(runnable, "chat-mailbox");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     /**
      * the identifier of the chat
      */
     private final long chatId;
 
     /**
-     * A list of messages in the chat
+     * The log where the messages of the chat are stored
      */
-    private final List<Message> messages;
+    private final MessageLog messageLog;
 
     /**
-     * A list of participants in the chat
+     * An immutable snapshot of the locators of all messages in the chat, only replaced by the mailbox
+     */
+    private volatile MessageIndex messageIndex;
+
+    /**
+     * Messages which are waiting to be appended to the chat
+     */
+    private final Queue<PendingMessage> mailbox;
+
+    /**
+     * Whether the mailbox is currently scheduled on or being processed by the mailbox executor
+     */
+    private final AtomicBoolean mailboxScheduled;
+
+    /**
+     * Why the chat stopped accepting messages, null while it accepts them. Set when the message log cannot be
+     * forced to disk, because it is unknown which appended messages would survive a restart
+     */
+    private volatile RemoteException failure;
+
+    /**
+     * A list of participants in the chat who are known to the server
      */
     private final List<User> participants;
 
+    /**
+     * The names of all participants in the chat
+     */
+    private final List<String> participantNames;
+
     /**
      * The file storage where files are stored
      */
@@ -51,32 +120,100 @@ class Chat
      * The constructor of the chat
      * @param self user who created the chat
      * @param other user who is invited to the chat
-     * @throws RemoteException if something goes wrong in the connection to the file storage
+     * @param messageLog where the messages of the chat are stored
+     * @throws RemoteException if something goes wrong in the connection to the file storage or in writing to the message log
      */
-    Chat(User self, User other) throws RemoteException
+    Chat(User self, User other, MessageLog messageLog) throws RemoteException
     {
         long tempId = nextChatId.get();
         if (tempId > (Long.MAX_VALUE - 2))
         {
             nextChatId.set(0);
         }
-        chatId = nextChatId.incrementAndGet();
 
-        chatSubscriptionName = "chat_" + chatId;
+        this.chatId = nextChatId.incrementAndGet();
+        this.chatSubscriptionName = "chat_" + chatId;
+        this.messageLog = messageLog;
+        this.messageIndex = new MessageIndex(new long[16], 0);
+        this.mailbox = new ConcurrentLinkedQueue<>();
+        this.mailboxScheduled = new AtomicBoolean(false);
+        this.participants = new CopyOnWriteArrayList<>(Arrays.asList(self, other));
+        this.participantNames = new CopyOnWriteArrayList<>(Arrays.asList(self.getUsername(), other.getUsername()));
 
-        this.messages = new ArrayList<>();
-        this.participants = new ArrayList<>();
+        try
+        {
+            messageLog.appendChat(chatId, participantNames);
+        }
+        catch (IOException e)
+        {
+            throw new RemoteException("Cannot write to the message log", e);
+        }
 
-        participants.addAll(Arrays.asList(self, other));
+        fileStorage = new FileServerClient().getFileStorage();
 
         for (User participant : participants)
         {
             participant.addToChat(this);
         }
+    }
+
+    /**
+     * The constructor of a chat which is restored out of the message log, participants are attached when they are known
+     * @param chatId of the chat
+     * @param participantNames of the users participating in the chat
+     * @param messageLog where the messages of the chat are stored
+     */
+    Chat(long chatId, List<String> participantNames, MessageLog messageLog)
+    {
+        nextChatId.accumulateAndGet(chatId, Math::max);
+
+        this.chatId = chatId;
+        this.chatSubscriptionName = "chat_" + chatId;
+        this.messageLog = messageLog;
+        this.messageIndex = new MessageIndex(new long[16], 0);
+        this.mailbox = new ConcurrentLinkedQueue<>();
+        this.mailboxScheduled = new AtomicBoolean(false);
+        this.participants = new CopyOnWriteArrayList<>();
+        this.participantNames = new CopyOnWriteArrayList<>(participantNames);
 
         fileStorage = new FileServerClient().getFileStorage();
     }
 
+    /**
+     * Restores a message out of the message log, must be called before any message is send in the chat
+     * @param sequenceNumber of the message, must directly follow the last restored message
+     * @param locator of the message in the message log
+     */
+    void restoreMessage(long sequenceNumber, long locator)
+    {
+        if (sequenceNumber == messageIndex.count + 1)
+        {
+            messageIndex = messageIndex.append(new long[] { locator }, 1);
+        }
+    }
+
+    /**
+     * Attaches a user which is restored out of the message log to this restored chat
+     * @param participant to be attached, must be one of the participant names
+     */
+    void restoreParticipant(User participant)
+    {
+        if (participantNames.contains(participant.getUsername()) && !participants.contains(participant))
+        {
+            participants.add(participant);
+            participant.restoreChat(this);
+        }
+    }
+
+    /**
+     * Gets the names of all participants of the chat
+     * @return a list of strings containing the usernames
+     */
+    List<String> getParticipantNames()
+    {
+        return participantNames;
+    }
+
     /**
      * Gets the subscription name of the chat
      * @return a string containing the subscription name of the chat
@@ -89,56 +226,369 @@ class Chat
     /**
      * Gets a serializable (send able) version of the chat
      * @return a SerializableChat object
+     * @throws RemoteException if something goes wrong in reading the message log
+     */
+    public SerializableChat getAsSerializable() throws RemoteException
+    {
+        ChatHistoryPage history = getHistory(ChatHistoryPage.LATEST, Integer.MAX_VALUE);
+
+        return new SerializableChat(chatId, participantNames, history.getMessages(), chatSubscriptionName, history.getLastSequenceNumber());
+    }
+
+    /**
+     * Gets a summary of the chat which does not contain the message history
+     * @param readSequenceNumber of the last message the requesting user has read
+     * @return a ChatSummary object
+     * @throws RemoteException if something goes wrong in reading the message log
+     */
+    public ChatSummary getSummary(long readSequenceNumber) throws RemoteException
+    {
+        ChatHistoryPage lastPage = getHistory(ChatHistoryPage.LATEST, 1);
+        Message lastMessage = lastPage.getMessages().isEmpty() ? null : lastPage.getMessages().get(0);
+        long unreadCount = Math.max(0, lastPage.getLastSequenceNumber() - readSequenceNumber);
+
+        return new ChatSummary(chatId, chatSubscriptionName, participantNames, lastMessage, lastPage.getLastSequenceNumber(), unreadCount);
+    }
+
+    /**
+     * Gets a page of messages out of the history of this chat
+     * @param beforeSequenceNumber only messages with a lower sequence number are returned
+     * @param limit maximum amount of messages to be returned
+     * @return a page containing at most limit messages, ordered from old to new
+     * @throws RemoteException if something goes wrong in reading the message log
      */
-    public SerializableChat getAsSerializable()
+    public ChatHistoryPage getHistory(long beforeSequenceNumber, int limit) throws RemoteException
     {
-        return new SerializableChat(chatId, participants, messages, chatSubscriptionName);
+        MessageIndex snapshot = messageIndex;
+        long last = Math.min(beforeSequenceNumber - 1, snapshot.count);
+        long first = Math.max(1, last - limit + 1);
+
+        if (last < first)
+        {
+            return new ChatHistoryPage(chatId, Math.max(1, last + 1), new ArrayList<>());
+        }
+
+        long[] locators = Arrays.copyOfRange(snapshot.locators, (int) first - 1, (int) last);
+
+        List<Message> page = new ArrayList<>(locators.length);
+
+        try
+        {
+            for (long locator : locators)
+            {
+                page.add(messageLog.readMessage(locator));
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RemoteException("Cannot read the message log", e);
+        }
+
+        return new ChatHistoryPage(chatId, first, page);
+    }
+
+    /**
+     * Sends a message in this chat and waits until it is stored durably and the participants are informed
+     * @param message to be send
+     * @return the sequence number assigned to the message
+     * @throws RemoteException if something goes wrong in writing to the message log
+     */
+    public long sendMessage(Message message) throws RemoteException
+    {
+        try
+        {
+            return submitMessage(message).join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof RemoteException)
+            {
+                throw (RemoteException) e.getCause();
+            }
+            throw new RemoteException("Cannot send the message", e.getCause());
+        }
     }
 
     /**
-     * Sends a message in this chat
+     * Puts a message in the mailbox of this chat. Messages are appended by one thread at a time in the order
+     * they were submitted, so no locking is needed.
      * @param message to be send
+     * @return a future which completes with the sequence number of the message once it is stored durably
      */
-    public void sendMessage(Message message)
+    CompletableFuture<Long> submitMessage(Message message)
     {
-        if (message instanceof FileMessage)
+        if (message instanceof FileMessage && ((FileMessage) message).getContents() != null)
         {
-            storeFile((FileMessage) message);
+            return submitAttachment((FileMessage) message);
         }
 
-        messages.add(message);
+        return enqueue(message);
+    }
+
+    /**
+     * Sends a placeholder for the file in this chat right away and uploads the file in the background,
+     * the participants are informed again once the upload has finished
+     * @param fileMessage containing the file
+     * @return a future which completes with the sequence number of the placeholder once it is stored durably
+     */
+    private CompletableFuture<Long> submitAttachment(FileMessage fileMessage)
+    {
+        int size = fileMessage.getContents().length;
+
+        try
+        {
+            attachmentPipeline.reserve(size);
+        }
+        catch (RemoteException e)
+        {
+            CompletableFuture<Long> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
 
-        informParticipants();
+        String storedName = newStoredName(fileMessage.getFilename());
+        CompletableFuture<Long> result = enqueue(fileMessage.withoutContents(storedName));
+
+        result.whenComplete((sequenceNumber, appendFailure) -> {
+            if (appendFailure != null)
+            {
+                attachmentPipeline.release(size);
+                return;
+            }
+
+            attachmentPipeline.submit(fileStorage, storedName, fileMessage.getContents())
+                    .whenComplete((ignored, uploadFailure) -> {
+                        if (uploadFailure != null)
+                        {
+                            uploadFailure.printStackTrace();
+                        }
+                        informParticipants(User.ATTACHMENT_UPDATER,
+                                new AttachmentStoredEvent(chatId, sequenceNumber, storedName, uploadFailure == null));
+                    });
+        });
+
+        return result;
     }
 
     /**
-     * Gets the specified file of of the file storage
-     * @param filename to be retrieved
-     * @return a byte array containing the file data
-     * @throws FileNotFoundException if the file cannot be found
-     * @throws RemoteException if something goes wrong in the connection to the file storage
+     * Starts an upload of an attachment which the client sends in chunks or over the data channel, so the
+     * attachment never has to fit in a single message
+     * @param filename of the attachment
+     * @return the upload, the file message is send once it is committed
+     * @throws RemoteException if the file storage is not available or cannot start the upload
      */
-    private byte[] getFile(String filename) throws FileNotFoundException, RemoteException
+    AttachmentUpload openAttachmentUpload(String filename) throws RemoteException
     {
-        return fileStorage.getFile(filename);
+        if (fileStorage == null)
+        {
+            throw new RemoteException("File storage is not available");
+        }
+
+        String storedName = newStoredName(filename);
+        return new AttachmentUpload(this, fileStorage, fileStorage.openUpload(storedName), storedName, filename);
     }
 
     /**
-     * Stores a file on the file storage
-     * @param fileMessage to be stored
+     * Creates a unique name under which an attachment of this chat is stored
+     * @param filename of the attachment
+     * @return the stored name, which starts with the chat id
      */
-    private void storeFile(FileMessage fileMessage)
+    private String newStoredName(String filename)
+    {
+        return chatId + "_" + UUID.randomUUID() + "_" + filename;
+    }
+
+    /**
+     * Puts a message in the mailbox of this chat
+     * @param message to be appended
+     * @return a future which completes with the sequence number of the message once it is stored durably
+     */
+    private CompletableFuture<Long> enqueue(Message message)
+    {
+        RemoteException stopped = failure;
+        if (stopped != null)
+        {
+            CompletableFuture<Long> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(stopped);
+            return rejected;
+        }
+
+        PendingMessage pendingMessage = new PendingMessage(message);
+        mailbox.add(pendingMessage);
+        scheduleMailbox();
+
+        return pendingMessage.result;
+    }
+
+    /**
+     * Schedules the mailbox on the mailbox executor if it is not scheduled yet
+     */
+    private void scheduleMailbox()
+    {
+        if (mailboxScheduled.compareAndSet(false, true))
+        {
+            mailboxExecutor.execute(this::processMailbox);
+        }
+    }
+
+    /**
+     * Appends the waiting messages in batches, every batch is made durable with a single fsync before the
+     * participants are informed
+     */
+    private void processMailbox()
     {
         try
         {
-            fileStorage.storeData(fileMessage.getFilename(), fileMessage.getContents());
+            List<PendingMessage> batch = new ArrayList<>();
+            PendingMessage pendingMessage;
+
+            while ((pendingMessage = mailbox.poll()) != null)
+            {
+                batch.add(pendingMessage);
+
+                if (batch.size() == MAX_BATCH_SIZE || mailbox.isEmpty())
+                {
+                    appendBatch(batch);
+                    batch.clear();
+                }
+            }
         }
-        catch (Exception e)
+        finally
         {
-            e.printStackTrace();
+            mailboxScheduled.set(false);
+
+            if (!mailbox.isEmpty())
+            {
+                scheduleMailbox();
+            }
+        }
+    }
+
+    /**
+     * Appends a batch of messages to the message log, publishes them and informs the participants. If the batch
+     * cannot be forced to disk none of its messages is published and the chat stops accepting messages
+     * @param batch of messages to be appended
+     */
+    private void appendBatch(List<PendingMessage> batch)
+    {
+        if (failure != null)
+        {
+            for (PendingMessage pendingMessage : batch)
+            {
+                pendingMessage.result.completeExceptionally(failure);
+            }
+            return;
+        }
+
+        MessageIndex snapshot = messageIndex;
+        long[] locators = new long[batch.size()];
+        List<PendingMessage> appended = new ArrayList<>(batch.size());
+
+        for (PendingMessage pendingMessage : batch)
+        {
+            long sequenceNumber = snapshot.count + appended.size() + 1;
+
+            try
+            {
+                locators[appended.size()] = messageLog.appendMessage(chatId, sequenceNumber, pendingMessage.message);
+                pendingMessage.sequenceNumber = sequenceNumber;
+                appended.add(pendingMessage);
+            }
+            catch (IOException e)
+            {
+                pendingMessage.result.completeExceptionally(new RemoteException("Cannot write to the message log", e));
+            }
+        }
+
+        if (appended.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            messageLog.awaitDurable(locators[appended.size() - 1]);
+        }
+        catch (IOException e)
+        {
+            failure = new RemoteException("Cannot force the message log to disk, the chat accepts no more messages", e);
+
+            for (PendingMessage pendingMessage : appended)
+            {
+                pendingMessage.result.completeExceptionally(failure);
+            }
+            return;
+        }
+
+        messageIndex = snapshot.append(locators, appended.size());
+
+        for (PendingMessage pendingMessage : appended)
+        {
+            informParticipants(chatSubscriptionName, new MessageAppendedEvent(chatId, pendingMessage.sequenceNumber, pendingMessage.message));
+            pendingMessage.result.complete(pendingMessage.sequenceNumber);
         }
     }
 
+    /**
+     * Gets the size of an attachment of this chat
+     * @param storedName of the attachment, as referred to by a file message in this chat
+     * @return the size of the attachment in bytes
+     * @throws FileNotFoundException if the attachment does not belong to this chat or cannot be found
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     */
+    long getAttachmentSize(String storedName) throws FileNotFoundException, RemoteException
+    {
+        return getAttachmentStorage(storedName).getFileSize(storedName);
+    }
+
+    /**
+     * Reads a range of an attachment of this chat out of the file storage
+     * @param storedName of the attachment, as referred to by a file message in this chat
+     * @param offset of the first byte to be read
+     * @param length maximum amount of bytes to be read
+     * @return a byte array containing at most IFileStorage.CHUNK_SIZE bytes of the attachment
+     * @throws FileNotFoundException if the attachment does not belong to this chat or cannot be found
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     */
+    byte[] readAttachment(String storedName, long offset, int length) throws FileNotFoundException, RemoteException
+    {
+        return getAttachmentStorage(storedName).readRange(storedName, offset, length);
+    }
+
+    /**
+     * Hands out a ticket to download an attachment of this chat from the data channel of the file server
+     * @param storedName of the attachment, as referred to by a file message in this chat
+     * @return a ticket, null if the file server has no data channel
+     * @throws FileNotFoundException if the attachment does not belong to this chat or cannot be found
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     */
+    TransferTicket requestAttachmentDownload(String storedName) throws FileNotFoundException, RemoteException
+    {
+        return getAttachmentStorage(storedName).requestDownload(storedName);
+    }
+
+    /**
+     * Checks if an attachment belongs to this chat and gets the file storage it is stored in
+     * @param storedName of the attachment
+     * @return the file storage
+     * @throws FileNotFoundException if the attachment does not belong to this chat
+     * @throws RemoteException if the file storage is not available
+     */
+    private IFileStorage getAttachmentStorage(String storedName) throws FileNotFoundException, RemoteException
+    {
+        if (storedName == null || !storedName.startsWith(chatId + "_"))
+        {
+            throw new FileNotFoundException("Attachment not found in this chat");
+        }
+
+        if (fileStorage == null)
+        {
+            throw new RemoteException("File storage is not available");
+        }
+
+        return fileStorage;
+    }
+
     /**
      * Gets the chat id
      * @return a long variable containing the chat id
@@ -149,18 +599,28 @@ class Chat
     }
 
     /**
-     * Informs all participants of a change in the chat
+     * Informs all participants of a change in the chat, the event is serialized once and the same encoding
+     * is send to every listener
+     * @param topic of the participants on which the change is informed
+     * @param event describing the change
      */
-    private void informParticipants()
+    private void informParticipants(String topic, Serializable event)
     {
+        Object payload;
+
+        try
+        {
+            payload = EncodedPayload.encode(event);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            payload = event;
+        }
+
         for (User participant : participants)
         {
-            try
-            {
-                participant.inform(chatSubscriptionName, null, getAsSerializable());
-            }
-            catch (RemoteException ignored)
-            { }
+            participant.inform(topic, null, payload);
         }
     }
 
@@ -176,4 +636,81 @@ class Chat
 
         return returnable.toString();
     }
+
+    /**
+     * A message in the mailbox which waits to be appended
+     */
+    private static class PendingMessage
+    {
+        /**
+         * the message to be appended
+         */
+        private final Message message;
+
+        /**
+         * the future which is completed once the message is appended
+         */
+        private final CompletableFuture<Long> result;
+
+        /**
+         * the sequence number assigned to the message, only used by the mailbox
+         */
+        private long sequenceNumber;
+
+        /**
+         * The constructor of the pending message
+         * @param message to be appended
+         */
+        PendingMessage(Message message)
+        {
+            this.message = message;
+            this.result = new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * An immutable view of the locators of the messages in a chat. Locators below the count are never changed,
+     * so appending can reuse the array as long as it has room left.
+     */
+    private static class MessageIndex
+    {
+        /**
+         * the locators of the messages, the message with sequence number n is stored at index n - 1
+         */
+        private final long[] locators;
+
+        /**
+         * the amount of messages in this view, which is also the sequence number of the last message
+         */
+        private final int count;
+
+        /**
+         * The constructor of the message index
+         * @param locators of the messages
+         * @param count amount of valid locators
+         */
+        MessageIndex(long[] locators, int count)
+        {
+            this.locators = locators;
+            this.count = count;
+        }
+
+        /**
+         * Creates a view which contains the specified locators after the locators of this view
+         * @param appended locators to be added
+         * @param amount of locators to be added
+         * @return the new view
+         */
+        MessageIndex append(long[] appended, int amount)
+        {
+            long[] target = locators;
+            if (count + amount > target.length)
+            {
+                target = Arrays.copyOf(target, Math.max(target.length * 2, count + amount));
+            }
+
+            System.arraycopy(appended, 0, target, count, amount);
+            return new MessageIndex(target, count + amount);
+        }
+    }
 }
@@ -0,0 +1,113 @@
+package server.logic;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * The salted hash of the password of a user, the password itself is never stored
+ */
+class Credentials
+{
+    /**
+     * The algorithm used to derive the hash from the password
+     */
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    /**
+     * The amount of iterations of the algorithm
+     */
+    private static final int ITERATIONS = 20000;
+
+    /**
+     * The size of the salt and of the hash in bytes
+     */
+    private static final int SIZE = 32;
+
+    /**
+     * Source of the salts
+     */
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * the random salt which is hashed together with the password
+     */
+    private final byte[] salt;
+
+    /**
+     * the hash of the salt and the password
+     */
+    private final byte[] hash;
+
+    /**
+     * The constructor of the credentials
+     * @param salt which was hashed together with the password
+     * @param hash of the salt and the password
+     */
+    Credentials(byte[] salt, byte[] hash)
+    {
+        this.salt = salt.clone();
+        this.hash = hash.clone();
+    }
+
+    /**
+     * Creates the credentials of a password with a new random salt
+     * @param password to be hashed
+     * @return the credentials of the password
+     */
+    static Credentials create(String password)
+    {
+        byte[] salt = new byte[SIZE];
+        random.nextBytes(salt);
+        return new Credentials(salt, hash(password, salt));
+    }
+
+    /**
+     * Checks if the specified password is the password these credentials were created of
+     * @param password to be checked
+     * @return true if the password is correct, otherwise false
+     */
+    boolean matches(String password)
+    {
+        return MessageDigest.isEqual(hash, hash(password, salt));
+    }
+
+    /**
+     * gets the salt
+     * @return a copy of the salt
+     */
+    byte[] getSalt()
+    {
+        return salt.clone();
+    }
+
+    /**
+     * gets the hash
+     * @return a copy of the hash
+     */
+    byte[] getHash()
+    {
+        return hash.clone();
+    }
+
+    /**
+     * Hashes a password together with a salt
+     * @param password to be hashed
+     * @param salt to be hashed together with the password
+     * @return the hash
+     */
+    private static byte[] hash(String password, byte[] salt)
+    {
+        try
+        {
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, SIZE * 8);
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IllegalStateException("Cannot hash the password", e);
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package server.logic;
 
 import exceptions.InvalidArgumentException;
+import fileserver.logic.TransferTicket;
+import shared.BulkMessage;
+import shared.BulkSendResult;
+import shared.ChatHistoryPage;
+import shared.ChatSummary;
 import shared.SerializableChat;
 import shared.Message;
 
+import java.io.FileNotFoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
@@ -13,6 +19,11 @@ import java.util.List;
  */
 public interface IAdministration extends Remote
 {
+    /**
+     * Capability of a client which can decompress large chat events and history pages
+     */
+    int CAPABILITY_COMPRESSION = 1;
+
     /**
      * Logs the user into the system
      * @param username of the user
@@ -22,6 +33,16 @@ public interface IAdministration extends Remote
      */
     long login(String username, String password) throws RemoteException;
 
+    /**
+     * Logs the user into the system, the server uses the capabilities of the client for the rest of the session
+     * @param username of the user
+     * @param password of the user
+     * @param capabilities of the client, a combination of the CAPABILITY constants
+     * @return if login successful a sessionId otherwise -1
+     * @throws RemoteException if something goes wrong in the connection
+     */
+    long login(String username, String password, int capabilities) throws RemoteException;
+
     /**
      * Registers and logs the user into the system
      * @param username of the user
@@ -31,6 +52,17 @@ public interface IAdministration extends Remote
      */
     long register(String username, String password) throws RemoteException;
 
+    /**
+     * Registers and logs the user into the system, the server uses the capabilities of the client for the rest of
+     * the session
+     * @param username of the user
+     * @param password of the user
+     * @param capabilities of the client, a combination of the CAPABILITY constants
+     * @return if login successful a sessionId otherwise -1
+     * @throws RemoteException if something goes wrong in the connection
+     */
+    long register(String username, String password, int capabilities) throws RemoteException;
+
     /**
      * Logs the user out of the system
      * @param sessionId of the logged in user
@@ -77,7 +109,7 @@ public interface IAdministration extends Remote
     void newChat(long sessionId, String contact) throws RemoteException, InvalidArgumentException;
 
     /**
-     * Gets al chats the logged in user participates in
+     * Gets al chats the logged in user participates in, including their complete message history
      * @param sessionId of the logged in user
      * @return a list containing all chats the user participates in
      * @throws RemoteException if something goes wrong in the connection
@@ -86,7 +118,39 @@ public interface IAdministration extends Remote
     List<SerializableChat> getParticipatingChats(long sessionId) throws RemoteException, InvalidArgumentException;
 
     /**
-     * Sends a message by the logged in user in the specified chat
+     * Gets a summary of all chats the logged in user participates in, without message history
+     * @param sessionId of the logged in user
+     * @return a list containing a summary of every chat the user participates in
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    List<ChatSummary> getChatSummaries(long sessionId) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Gets a page of messages out of the history of the specified chat
+     * @param sessionId of the logged in user
+     * @param chatId of the chat, the logged in user must participate in it
+     * @param beforeSequenceNumber only messages with a lower sequence number are returned, use ChatHistoryPage.LATEST for the most recent messages
+     * @param limit maximum amount of messages to be returned, at most ChatHistoryPage.MAX_PAGE_SIZE
+     * @return a page of messages, ordered from old to new
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    ChatHistoryPage getChatHistory(long sessionId, long chatId, long beforeSequenceNumber, int limit) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Marks all messages up to and including the specified sequence number as read by the logged in user
+     * @param sessionId of the logged in user
+     * @param chatId of the chat, the logged in user must participate in it
+     * @param sequenceNumber of the last read message
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    void markChatRead(long sessionId, long chatId, long sequenceNumber) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Sends a message by the logged in user in the specified chat, the contents of a file message are stored
+     * in the background and the participants are informed once they are stored
      * @param sessionId of the logged in user
      * @param chatId of the chat to send the message to
      * @param message to be send in the chat
@@ -94,4 +158,105 @@ public interface IAdministration extends Remote
      * @throws InvalidArgumentException if false data was given to the server
      */
     void sendMessage(long sessionId, long chatId, Message message) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Sends many messages by the logged in user in one call, the messages are send in parallel across the chats and
+     * in the given order within a chat
+     * @param sessionId of the logged in user
+     * @param messages to be send, each together with the id of its chat
+     * @return the result of every message, in the same order as the messages
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    List<BulkSendResult> sendMessages(long sessionId, List<BulkMessage> messages) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Gets the size of a file which was send in the specified chat
+     * @param sessionId of the logged in user
+     * @param chatId of the chat, the logged in user must participate in it
+     * @param storedName of the file, as referred to by the file message
+     * @return the size of the file in bytes
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     * @throws FileNotFoundException if the file was not found, or is not stored yet
+     */
+    long getAttachmentSize(long sessionId, long chatId, String storedName) throws RemoteException, InvalidArgumentException, FileNotFoundException;
+
+    /**
+     * Reads a range of a file which was send in the specified chat
+     * @param sessionId of the logged in user
+     * @param chatId of the chat, the logged in user must participate in it
+     * @param storedName of the file, as referred to by the file message
+     * @param offset of the first byte to be read
+     * @param length maximum amount of bytes to be read, at most IFileStorage.CHUNK_SIZE bytes are returned
+     * @return a byte array containing the data, shorter than length if the end of the file was reached
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     * @throws FileNotFoundException if the file was not found, or is not stored yet
+     */
+    byte[] readAttachment(long sessionId, long chatId, String storedName, long offset, int length) throws RemoteException, InvalidArgumentException, FileNotFoundException;
+
+    /**
+     * Hands out a ticket to download a whole file which was send in the specified chat straight from the data channel of the file server
+     * @param sessionId of the logged in user
+     * @param chatId of the chat, the logged in user must participate in it
+     * @param storedName of the file, as referred to by the file message
+     * @return a ticket which is valid for a single connection, null if the file server has no data channel
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     * @throws FileNotFoundException if the file was not found, or is not stored yet
+     */
+    TransferTicket requestAttachmentDownload(long sessionId, long chatId, String storedName) throws RemoteException, InvalidArgumentException, FileNotFoundException;
+
+    /**
+     * Starts an upload of a file which will be send in the specified chat, the file is uploaded in chunks or over
+     * the data channel of the file server instead of inside a file message
+     * @param sessionId of the logged in user
+     * @param chatId of the chat, the logged in user must participate in it
+     * @param filename of the file
+     * @return the id of the upload
+     * @throws RemoteException if something goes wrong in the connection, or too many uploads are running
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    long openAttachmentUpload(long sessionId, long chatId, String filename) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Writes the next chunk of a file which is being uploaded
+     * @param sessionId of the logged in user
+     * @param uploadId of the upload, as returned by openAttachmentUpload
+     * @param offset of the chunk within the file, must be the amount of bytes written so far
+     * @param chunk the data to be written, at most IFileStorage.CHUNK_SIZE bytes
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    void writeAttachmentChunk(long sessionId, long uploadId, long offset, byte[] chunk) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Hands out a ticket to upload the rest of a file straight to the data channel of the file server
+     * @param sessionId of the logged in user
+     * @param uploadId of the upload, as returned by openAttachmentUpload
+     * @param length the amount of bytes which will be uploaded
+     * @return a ticket which is valid for a single connection, null if the file server has no data channel
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    TransferTicket requestAttachmentUpload(long sessionId, long uploadId, long length) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Stores an uploaded file and sends a file message which refers to it in the chat of the upload
+     * @param sessionId of the logged in user
+     * @param uploadId of the upload, as returned by openAttachmentUpload
+     * @throws RemoteException if something goes wrong in the connection, or the file cannot be stored
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    void commitAttachmentUpload(long sessionId, long uploadId) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Discards a file which is being uploaded
+     * @param sessionId of the logged in user
+     * @param uploadId of the upload, as returned by openAttachmentUpload
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if false data was given to the server
+     */
+    void abortAttachmentUpload(long sessionId, long uploadId) throws RemoteException, InvalidArgumentException;
 }
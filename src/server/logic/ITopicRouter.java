@@ -0,0 +1,46 @@
+package server.logic;
+
+import exceptions.InvalidArgumentException;
+import shared.fontyspublisher.IRemotePropertyListener;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Topic router interface, used by logged in clients to subscribe to the changes of their user and chats
+ */
+public interface ITopicRouter extends Remote
+{
+    /**
+     * Subscribes a listener to a topic of the logged in user
+     * @param sessionId of the logged in user
+     * @param listener to be informed of changes
+     * @param topic to be subscribed to, null subscribes to all topics
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if the session or the topic does not exist
+     */
+    void subscribe(long sessionId, IRemotePropertyListener listener, String topic) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Unsubscribes a listener from a topic of the logged in user
+     * @param sessionId of the logged in user
+     * @param listener to be unsubscribed
+     * @param topic to be unsubscribed from, null unsubscribes from all topics
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if the session does not exist
+     */
+    void unsubscribe(long sessionId, IRemotePropertyListener listener, String topic) throws RemoteException, InvalidArgumentException;
+
+    /**
+     * Subscribes a listener again after its connection was lost, only the events it missed are send again
+     * @param sessionId of the logged in user
+     * @param listener to be informed of changes
+     * @param lastSequenceNumbers sequence number of the last received event, per topic, 0 if no event was received
+     * @return the topics of which missed events are no longer available, the client has to reload their complete state
+     * @throws RemoteException if something goes wrong in the connection
+     * @throws InvalidArgumentException if the session does not exist
+     */
+    List<String> resume(long sessionId, IRemotePropertyListener listener, Map<String, Long> lastSequenceNumbers) throws RemoteException, InvalidArgumentException;
+}
@@ -0,0 +1,650 @@
+package server.logic;
+
+import shared.Message;
+import shared.MessageCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * A durable, append-only log of all users, chats and messages, shared by all chats and keyed by chat id.
+ * The log is split into memory-mapped segment files, concurrent appends share a single fsync (group commit)
+ * and the log is replayed when the server starts.
+ */
+class MessageLog implements Closeable
+{
+    /**
+     * The default directory where the segments of the log are stored
+     */
+    static final String DEFAULT_DIRECTORY = "MessageLog";
+
+    /**
+     * The size of a newly created segment, records which are larger get a segment of their own size
+     */
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Record type of the unwritten remainder of a segment
+     */
+    private static final byte RECORD_END = 0;
+
+    /**
+     * Record type of a created chat, the payload contains the participant names
+     */
+    private static final byte RECORD_CHAT = 1;
+
+    /**
+     * Record type of a message send in a chat, the payload contains the serialized message. Only written by older
+     * versions of the server
+     */
+    private static final byte RECORD_MESSAGE = 2;
+
+    /**
+     * Record type of a message send in a chat, the payload contains the message encoded by the message codec
+     */
+    private static final byte RECORD_COMPACT_MESSAGE = 3;
+
+    /**
+     * Record type of a registered user, the payload contains the username and the credentials
+     */
+    private static final byte RECORD_USER = 4;
+
+    /**
+     * Record type of a changed contact list, the payload contains the username and all contact names of the user
+     */
+    private static final byte RECORD_CONTACTS = 5;
+
+    /**
+     * Size of a record header: type, payload length, chat id and sequence number
+     */
+    private static final int HEADER_SIZE = 1 + 4 + 8 + 8;
+
+    /**
+     * Size of a record trailer: the checksum over header and payload
+     */
+    private static final int TRAILER_SIZE = 4;
+
+    /**
+     * The directory where the segments of the log are stored
+     */
+    private final Path directory;
+
+    /**
+     * All segments of the log, ordered by index
+     */
+    private final List<Segment> segments;
+
+    /**
+     * A synchronizer object used to only allow one append at a time
+     */
+    private final Object writeSynchronizer;
+
+    /**
+     * A synchronizer object used to let concurrent appenders share a single fsync
+     */
+    private final Object flushSynchronizer;
+
+    /**
+     * The segment records are currently appended to
+     */
+    private Segment currentSegment;
+
+    /**
+     * The position in the current segment where the next record is appended
+     */
+    private int writeOffset;
+
+    /**
+     * The locator of the end of the last appended record
+     */
+    private volatile long writtenLocator;
+
+    /**
+     * Every record which starts before this locator has been forced to disk
+     */
+    private long durableLocator;
+
+    /**
+     * Whether a thread is currently forcing the log to disk on behalf of all waiting appenders
+     */
+    private boolean flushing;
+
+    /**
+     * Callback interface used to replay the contents of the log
+     */
+    interface ReplayListener
+    {
+        /**
+         * Is being called for every user in the log, before the chats and contact lists the user appears in
+         * @param username of the user
+         * @param credentials of the user
+         */
+        void userRegistered(String username, Credentials credentials);
+
+        /**
+         * Is being called every time the contact list of a user was changed, the last call holds the current list
+         * @param username of the user
+         * @param contactNames of all contacts of the user
+         */
+        void contactsChanged(String username, List<String> contactNames);
+
+        /**
+         * Is being called for every chat in the log
+         * @param chatId of the chat
+         * @param participantNames of the users participating in the chat
+         */
+        void chatCreated(long chatId, List<String> participantNames);
+
+        /**
+         * Is being called for every message in the log, in the order they were appended
+         * @param chatId of the chat the message was send in
+         * @param sequenceNumber of the message within the chat
+         * @param locator which can be used to read the message
+         */
+        void messageAppended(long chatId, long sequenceNumber, long locator);
+    }
+
+    /**
+     * The constructor of the message log, opens all existing segments in the specified directory
+     * @param directory where the segments of the log are stored
+     * @throws IOException if the directory or one of the segments cannot be opened
+     */
+    MessageLog(Path directory) throws IOException
+    {
+        this.directory = directory;
+        this.segments = new CopyOnWriteArrayList<>();
+        this.writeSynchronizer = new Object();
+        this.flushSynchronizer = new Object();
+
+        Files.createDirectories(directory);
+
+        List<Path> segmentPaths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log"))
+        {
+            stream.forEach(segmentPaths::add);
+        }
+        segmentPaths.sort(null);
+
+        for (Path segmentPath : segmentPaths)
+        {
+            segments.add(new Segment(segments.size(), segmentPath, (int) Files.size(segmentPath)));
+        }
+
+        if (segments.isEmpty())
+        {
+            segments.add(createSegment(0, SEGMENT_SIZE));
+        }
+
+        currentSegment = segments.get(segments.size() - 1);
+        writeOffset = findEndOfSegment(currentSegment);
+        writtenLocator = locator(currentSegment.index, writeOffset);
+        durableLocator = writtenLocator;
+    }
+
+    /**
+     * Replays the log, calling the listener for every chat and message in the order they were appended
+     * @param listener to be informed of the contents of the log
+     * @throws IOException if a record cannot be read
+     */
+    void replay(ReplayListener listener) throws IOException
+    {
+        for (Segment segment : segments)
+        {
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int offset = 0;
+
+            while (isValidRecord(buffer, offset))
+            {
+                byte type = buffer.get(offset);
+                int length = buffer.getInt(offset + 1);
+                long chatId = buffer.getLong(offset + 5);
+                long sequenceNumber = buffer.getLong(offset + 13);
+
+                if (type == RECORD_USER)
+                {
+                    DataInputStream input = payloadInput(buffer, offset, length);
+                    String username = input.readUTF();
+                    byte[] salt = new byte[input.readUnsignedShort()];
+                    input.readFully(salt);
+                    byte[] hash = new byte[input.readUnsignedShort()];
+                    input.readFully(hash);
+                    listener.userRegistered(username, new Credentials(salt, hash));
+                }
+                else if (type == RECORD_CONTACTS)
+                {
+                    DataInputStream input = payloadInput(buffer, offset, length);
+                    String username = input.readUTF();
+                    List<String> contactNames = new ArrayList<>();
+                    for (int i = input.readInt(); i > 0; i--)
+                    {
+                        contactNames.add(input.readUTF());
+                    }
+                    listener.contactsChanged(username, contactNames);
+                }
+                else if (type == RECORD_CHAT)
+                {
+                    listener.chatCreated(chatId, readParticipantNames(buffer, offset, length));
+                }
+                else if (type == RECORD_MESSAGE || type == RECORD_COMPACT_MESSAGE)
+                {
+                    listener.messageAppended(chatId, sequenceNumber, locator(segment.index, offset));
+                }
+
+                offset += HEADER_SIZE + length + TRAILER_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Appends a registered user to the log and waits until it is stored durably
+     * @param username of the user
+     * @param credentials of the user
+     * @throws IOException if the record cannot be written
+     */
+    void appendUser(String username, Credentials credentials) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes))
+        {
+            output.writeUTF(username);
+            output.writeShort(credentials.getSalt().length);
+            output.write(credentials.getSalt());
+            output.writeShort(credentials.getHash().length);
+            output.write(credentials.getHash());
+        }
+
+        awaitDurable(append(RECORD_USER, 0, 0, bytes.toByteArray()));
+    }
+
+    /**
+     * Appends the contact list of a user to the log and waits until it is stored durably
+     * @param username of the user
+     * @param contactNames of all contacts of the user
+     * @throws IOException if the record cannot be written
+     */
+    void appendContacts(String username, List<String> contactNames) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes))
+        {
+            output.writeUTF(username);
+            output.writeInt(contactNames.size());
+            for (String contactName : contactNames)
+            {
+                output.writeUTF(contactName);
+            }
+        }
+
+        awaitDurable(append(RECORD_CONTACTS, 0, 0, bytes.toByteArray()));
+    }
+
+    /**
+     * Appends a created chat to the log and waits until it is stored durably
+     * @param chatId of the chat
+     * @param participantNames of the users participating in the chat
+     * @throws IOException if the record cannot be written
+     */
+    void appendChat(long chatId, List<String> participantNames) throws IOException
+    {
+        awaitDurable(append(RECORD_CHAT, chatId, 0, serialize(new ArrayList<>(participantNames))));
+    }
+
+    /**
+     * Appends a message to the log, the message is not durable until awaitDurable returns for the returned locator
+     * @param chatId of the chat the message is send in
+     * @param sequenceNumber of the message within the chat
+     * @param message to be appended
+     * @return the locator which can be used to read the message
+     * @throws IOException if the record cannot be written
+     */
+    long appendMessage(long chatId, long sequenceNumber, Message message) throws IOException
+    {
+        return append(RECORD_COMPACT_MESSAGE, chatId, sequenceNumber, MessageCodec.encode(message));
+    }
+
+    /**
+     * Reads a message out of the log
+     * @param locator which was returned when the message was appended
+     * @return the message stored at the locator
+     * @throws IOException if the message cannot be read
+     */
+    Message readMessage(long locator) throws IOException
+    {
+        Segment segment = segments.get((int) (locator >>> 32));
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = (int) locator;
+
+        byte type = buffer.get(offset);
+        int length = buffer.getInt(offset + 1);
+
+        if (type == RECORD_COMPACT_MESSAGE)
+        {
+            return MessageCodec.decode(read(buffer, offset + HEADER_SIZE, length));
+        }
+
+        if (type != RECORD_MESSAGE)
+        {
+            throw new IOException(String.format("No message stored at locator %d", locator));
+        }
+
+        return (Message) deserialize(buffer, offset + HEADER_SIZE, length);
+    }
+
+    /**
+     * Waits until the record at the specified locator is forced to disk. If no other thread is forcing the log,
+     * the calling thread forces every record appended so far, so concurrent appenders share a single fsync.
+     * @param locator of the record
+     * @throws IOException if the log cannot be forced to disk
+     */
+    void awaitDurable(long locator) throws IOException
+    {
+        long target;
+
+        synchronized (flushSynchronizer)
+        {
+            while (flushing && durableLocator <= locator)
+            {
+                try
+                {
+                    flushSynchronizer.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the message log", e);
+                }
+            }
+
+            if (durableLocator > locator)
+            {
+                return;
+            }
+
+            flushing = true;
+            target = writtenLocator;
+        }
+
+        boolean forced = false;
+        try
+        {
+            segments.get((int) (target >>> 32)).buffer.force();
+            forced = true;
+        }
+        finally
+        {
+            synchronized (flushSynchronizer)
+            {
+                if (forced && target > durableLocator)
+                {
+                    durableLocator = target;
+                }
+                flushing = false;
+                flushSynchronizer.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (writeSynchronizer)
+        {
+            for (Segment segment : segments)
+            {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the log, a new segment is started if the record does not fit in the current segment
+     * @param type of the record
+     * @param chatId of the chat the record belongs to
+     * @param sequenceNumber of the record within the chat
+     * @param payload of the record
+     * @return the locator of the record
+     * @throws IOException if a new segment cannot be created
+     */
+    private long append(byte type, long chatId, long sequenceNumber, byte[] payload) throws IOException
+    {
+        int recordSize = HEADER_SIZE + payload.length + TRAILER_SIZE;
+
+        synchronized (writeSynchronizer)
+        {
+            if (writeOffset + recordSize > currentSegment.buffer.capacity())
+            {
+                currentSegment.buffer.force();
+                currentSegment = createSegment(currentSegment.index + 1, Math.max(SEGMENT_SIZE, recordSize + 1));
+                segments.add(currentSegment);
+                writeOffset = 0;
+            }
+
+            ByteBuffer buffer = currentSegment.buffer.duplicate();
+            buffer.position(writeOffset);
+            buffer.put(type);
+            buffer.putInt(payload.length);
+            buffer.putLong(chatId);
+            buffer.putLong(sequenceNumber);
+            buffer.put(payload);
+            buffer.putInt(checksum(buffer, writeOffset, HEADER_SIZE + payload.length));
+
+            long locator = locator(currentSegment.index, writeOffset);
+            writeOffset += recordSize;
+            writtenLocator = locator(currentSegment.index, writeOffset);
+
+            return locator;
+        }
+    }
+
+    /**
+     * Creates a new segment file
+     * @param index of the segment
+     * @param size of the segment in bytes
+     * @return the created segment
+     * @throws IOException if the segment cannot be created
+     */
+    private Segment createSegment(int index, int size) throws IOException
+    {
+        return new Segment(index, directory.resolve(String.format("%010d.log", index)), size);
+    }
+
+    /**
+     * Finds the offset behind the last valid record of a segment, a partially written record at the end is ignored
+     * @param segment to be scanned
+     * @return the offset where the next record can be appended
+     */
+    private int findEndOfSegment(Segment segment)
+    {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = 0;
+
+        while (isValidRecord(buffer, offset))
+        {
+            offset += HEADER_SIZE + buffer.getInt(offset + 1) + TRAILER_SIZE;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Checks if a complete record with a valid checksum is stored at the specified offset
+     * @param buffer of the segment
+     * @param offset of the record
+     * @return true if the record is valid, otherwise false
+     */
+    private boolean isValidRecord(ByteBuffer buffer, int offset)
+    {
+        if (offset + HEADER_SIZE + TRAILER_SIZE > buffer.capacity() || buffer.get(offset) == RECORD_END)
+        {
+            return false;
+        }
+
+        int length = buffer.getInt(offset + 1);
+        if (length < 0 || offset + HEADER_SIZE + length + TRAILER_SIZE > buffer.capacity())
+        {
+            return false;
+        }
+
+        return buffer.getInt(offset + HEADER_SIZE + length) == checksum(buffer, offset, HEADER_SIZE + length);
+    }
+
+    /**
+     * Calculates the checksum of a part of a segment
+     * @param buffer of the segment
+     * @param offset of the first byte
+     * @param length amount of bytes
+     * @return the checksum of the bytes
+     */
+    private static int checksum(ByteBuffer buffer, int offset, int length)
+    {
+        ByteBuffer part = buffer.duplicate();
+        part.limit(offset + length);
+        part.position(offset);
+
+        CRC32 crc = new CRC32();
+        crc.update(part);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads the participant names stored in a chat record
+     * @param buffer of the segment
+     * @param offset of the record
+     * @param length of the payload
+     * @return the names of the participants
+     * @throws IOException if the payload cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    private static List<String> readParticipantNames(ByteBuffer buffer, int offset, int length) throws IOException
+    {
+        return (List<String>) deserialize(buffer, offset + HEADER_SIZE, length);
+    }
+
+    /**
+     * Opens a stream over the payload of a record
+     * @param buffer of the segment
+     * @param offset of the record
+     * @param length of the payload
+     * @return a stream which reads the payload
+     */
+    private static DataInputStream payloadInput(ByteBuffer buffer, int offset, int length)
+    {
+        return new DataInputStream(new ByteArrayInputStream(read(buffer, offset + HEADER_SIZE, length)));
+    }
+
+    /**
+     * Combines a segment index and offset into a single locator, locators increase in the order records are appended
+     * @param segmentIndex of the segment
+     * @param offset within the segment
+     * @return the locator
+     */
+    private static long locator(int segmentIndex, int offset)
+    {
+        return ((long) segmentIndex << 32) | offset;
+    }
+
+    /**
+     * Serializes an object into a byte array
+     * @param object to be serialized
+     * @return the serialized object
+     * @throws IOException if the object cannot be serialized
+     */
+    private static byte[] serialize(Object object) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes))
+        {
+            output.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes an object out of a part of a segment
+     * @param buffer of the segment
+     * @param offset of the serialized object
+     * @param length of the serialized object
+     * @return the deserialized object
+     * @throws IOException if the object cannot be deserialized
+     */
+    private static Object deserialize(ByteBuffer buffer, int offset, int length) throws IOException
+    {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(read(buffer, offset, length))))
+        {
+            return input.readObject();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException("Unknown record contents", e);
+        }
+    }
+
+    /**
+     * Copies a part of a segment
+     * @param buffer of the segment
+     * @param offset of the first byte
+     * @param length of the part
+     * @return the bytes of the part
+     */
+    private static byte[] read(ByteBuffer buffer, int offset, int length)
+    {
+        byte[] bytes = new byte[length];
+        ByteBuffer part = buffer.duplicate();
+        part.position(offset);
+        part.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * A memory-mapped segment file of the log
+     */
+    private static class Segment
+    {
+        /**
+         * the index of the segment
+         */
+        private final int index;
+
+        /**
+         * the channel of the segment file
+         */
+        private final FileChannel channel;
+
+        /**
+         * the memory-mapped contents of the segment file
+         */
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The constructor of the segment, the file is created if it does not exist yet
+         * @param index of the segment
+         * @param path of the segment file
+         * @param size of the segment in bytes
+         * @throws IOException if the segment file cannot be mapped
+         */
+        Segment(int index, Path path, int size) throws IOException
+        {
+            this.index = index;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
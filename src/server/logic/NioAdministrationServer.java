@@ -0,0 +1,474 @@
+package server.logic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serves the administration over the framed protocol of NioProtocol. A single selector thread accepts connections,
+ * reads requests and writes responses, the calls themselves run on a pool of worker threads. Connections do not hold a
+ * thread, and a client may send many requests on one connection without waiting for the responses. A connection stops
+ * being read while MAX_IN_FLIGHT of its requests are not answered yet.
+ */
+public class NioAdministrationServer implements Closeable
+{
+    /**
+     * The amount of worker threads which call the administration
+     */
+    private static final int WORKER_COUNT = 32;
+
+    /**
+     * The initial size of the read buffer of a connection, it grows while a larger frame arrives and shrinks back
+     * once the frame is handled
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The maximum amount of requests of a connection which are handled or whose responses are not written yet
+     */
+    private static final int MAX_IN_FLIGHT = 16;
+
+    /**
+     * The administration which is called
+     */
+    private final IAdministration administration;
+
+    /**
+     * Every method of the administration, indexed by signature
+     */
+    private final Map<String, Method> methods;
+
+    /**
+     * The selector of all channels
+     */
+    private final Selector selector;
+
+    /**
+     * The channel on which connections are accepted
+     */
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * The threads which call the administration
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Connections which got new responses to be written, processed by the selector thread
+     */
+    private final Queue<Connection> connectionsWithResponses;
+
+    /**
+     * Whether the selector was woken up and did not process the new responses yet, so a burst of responses only
+     * wakes it up once
+     */
+    private final AtomicBoolean wakeupPending;
+
+    /**
+     * The constructor of the server, starts accepting connections on the specified port
+     * @param administration to be called
+     * @param port on which connections are accepted
+     * @throws IOException if the port cannot be bound
+     */
+    public NioAdministrationServer(IAdministration administration, int port) throws IOException
+    {
+        this.administration = administration;
+        this.methods = new HashMap<>();
+        this.connectionsWithResponses = new ConcurrentLinkedQueue<>();
+        this.wakeupPending = new AtomicBoolean();
+
+        for (Method method : IAdministration.class.getMethods())
+        {
+            methods.put(NioProtocol.signature(method), method);
+        }
+
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        this.workers = Executors.newFixedThreadPool(WORKER_COUNT, runnable -> {
+            Thread thread = new Thread(runnable, "nio-administration-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread selectorThread = new Thread(this::select, "nio-administration-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * The loop of the selector thread
+     */
+    private void select()
+    {
+        try
+        {
+            while (selector.isOpen())
+            {
+                selector.select();
+                wakeupPending.set(false);
+
+                Connection connection;
+                while ((connection = connectionsWithResponses.poll()) != null)
+                {
+                    try
+                    {
+                        connection.write();
+                    }
+                    catch (IOException e)
+                    {
+                        connection.close();
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                        continue;
+                    }
+
+                    connection = (Connection) key.attachment();
+
+                    try
+                    {
+                        if (key.isReadable())
+                        {
+                            connection.read();
+                        }
+
+                        if (key.isValid() && key.isWritable())
+                        {
+                            connection.write();
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        connection.close();
+                    }
+                }
+            }
+        }
+        catch (IOException | ClosedSelectorException e)
+        {
+            if (selector.isOpen())
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Accepts a waiting connection
+     * @throws IOException if the connection cannot be registered
+     */
+    private void accept() throws IOException
+    {
+        SocketChannel channel = serverChannel.accept();
+
+        if (channel == null)
+        {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    /**
+     * Calls the administration as requested
+     * @param request which was received
+     * @return the response to be send back
+     */
+    private NioProtocol.Response call(NioProtocol.Request request)
+    {
+        Method method = methods.get(request.getSignature());
+
+        if (method == null)
+        {
+            return new NioProtocol.Response(null, new RemoteException("Unknown method " + request.getSignature()));
+        }
+
+        try
+        {
+            return new NioProtocol.Response(method.invoke(administration, request.getArguments()), null);
+        }
+        catch (InvocationTargetException e)
+        {
+            return new NioProtocol.Response(null, e.getCause());
+        }
+        catch (IllegalAccessException | IllegalArgumentException e)
+        {
+            return new NioProtocol.Response(null, new RemoteException("Invalid request " + request.getSignature(), e));
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        selector.close();
+        serverChannel.close();
+        workers.shutdown();
+    }
+
+    /**
+     * A connection with a client
+     */
+    private class Connection
+    {
+        /**
+         * the channel of the connection
+         */
+        private final SocketChannel channel;
+
+        /**
+         * responses waiting to be written, in the order they were completed
+         */
+        private final Queue<ByteBuffer> responses;
+
+        /**
+         * the bytes which were read but do not form a complete frame yet, only used by the selector thread
+         */
+        private ByteBuffer readBuffer;
+
+        /**
+         * the key of the channel in the selector
+         */
+        private SelectionKey key;
+
+        /**
+         * the amount of requests which were dispatched but whose responses are not written yet, only used by the
+         * selector thread
+         */
+        private int inFlight;
+
+        /**
+         * Constructor of the connection
+         * @param channel of the connection
+         */
+        Connection(SocketChannel channel)
+        {
+            this.channel = channel;
+            this.responses = new ConcurrentLinkedQueue<>();
+            this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+
+        /**
+         * Reads what is available and dispatches the complete requests to the workers
+         * @throws IOException if the connection is closed or a frame is invalid
+         */
+        void read() throws IOException
+        {
+            if (channel.read(readBuffer) < 0)
+            {
+                throw new IOException("Connection closed by client");
+            }
+
+            dispatch();
+        }
+
+        /**
+         * Dispatches the complete requests in the read buffer to the workers until MAX_IN_FLIGHT requests are in
+         * flight, only used by the selector thread
+         * @throws IOException if a frame is invalid
+         */
+        private void dispatch() throws IOException
+        {
+            int pendingFrameSize = 0;
+            readBuffer.flip();
+
+            while (inFlight < MAX_IN_FLIGHT && readBuffer.remaining() >= NioProtocol.HEADER_SIZE)
+            {
+                int length = readBuffer.getInt(readBuffer.position());
+
+                if (length < 8 || length > NioProtocol.MAX_FRAME_SIZE)
+                {
+                    throw new IOException("Invalid frame length " + length);
+                }
+
+                if (readBuffer.remaining() < 4 + length)
+                {
+                    pendingFrameSize = 4 + length;
+                    break;
+                }
+
+                readBuffer.getInt();
+                long requestId = readBuffer.getLong();
+                byte[] body = new byte[length - 8];
+                readBuffer.get(body);
+
+                inFlight++;
+                workers.execute(() -> handle(requestId, body));
+            }
+
+            readBuffer.compact();
+            resize(pendingFrameSize);
+            updateInterest();
+        }
+
+        /**
+         * Grows the read buffer once it is filled by a frame which does not fit, so memory is only taken for bytes
+         * which actually arrived, and shrinks it back once the large frames are handled
+         * @param pendingFrameSize size of the incomplete frame at the start of the buffer, 0 if there is none
+         */
+        private void resize(int pendingFrameSize)
+        {
+            ByteBuffer resized;
+
+            if (pendingFrameSize > readBuffer.capacity() && !readBuffer.hasRemaining())
+            {
+                resized = ByteBuffer.allocate((int) Math.min(pendingFrameSize, 2L * readBuffer.capacity()));
+            }
+            else if (readBuffer.capacity() > READ_BUFFER_SIZE && pendingFrameSize <= READ_BUFFER_SIZE
+                    && readBuffer.position() <= READ_BUFFER_SIZE)
+            {
+                resized = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            }
+            else
+            {
+                return;
+            }
+
+            readBuffer.flip();
+            resized.put(readBuffer);
+            readBuffer = resized;
+        }
+
+        /**
+         * Decodes a request, calls the administration and queues the response, runs on a worker thread
+         * @param requestId of the request
+         * @param body of the request frame
+         */
+        private void handle(long requestId, byte[] body)
+        {
+            ByteBuffer frame;
+
+            try
+            {
+                NioProtocol.Response response = call(NioProtocol.decodeRequest(body));
+
+                try
+                {
+                    frame = NioProtocol.encode(requestId, response);
+                }
+                catch (IOException e)
+                {
+                    frame = NioProtocol.encode(requestId, new NioProtocol.Response(null, new RemoteException("Cannot send result", e)));
+                }
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+                close();
+                return;
+            }
+
+            responses.add(frame);
+            connectionsWithResponses.add(this);
+
+            if (wakeupPending.compareAndSet(false, true))
+            {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Writes as many waiting responses as the channel accepts and resumes reading once fewer than MAX_IN_FLIGHT
+         * requests are in flight, only used by the selector thread
+         * @throws IOException if the connection is closed or a buffered frame is invalid
+         */
+        void write() throws IOException
+        {
+            if (!key.isValid())
+            {
+                return;
+            }
+
+            ByteBuffer response;
+
+            while ((response = responses.peek()) != null)
+            {
+                channel.write(response);
+
+                if (response.hasRemaining())
+                {
+                    break;
+                }
+
+                responses.poll();
+                inFlight--;
+            }
+
+            if (inFlight < MAX_IN_FLIGHT && readBuffer.position() > 0)
+            {
+                dispatch();
+            }
+            else
+            {
+                updateInterest();
+            }
+        }
+
+        /**
+         * Only asks the selector for readability while fewer than MAX_IN_FLIGHT requests are in flight, and for
+         * writability while responses are waiting
+         */
+        private void updateInterest()
+        {
+            if (key.isValid())
+            {
+                int interestOps = inFlight < MAX_IN_FLIGHT ? SelectionKey.OP_READ : 0;
+                key.interestOps(responses.isEmpty() ? interestOps : interestOps | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Closes the connection, waiting responses are discarded
+         */
+        void close()
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
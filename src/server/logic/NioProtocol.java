@@ -0,0 +1,257 @@
+package server.logic;
+
+import fileserver.logic.IFileStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * The framed protocol used to call the administration over a plain socket instead of RMI. Every frame starts with
+ * the length of the rest of the frame and the id of the request, followed by a serialized request or response.
+ * Responses carry the id of their request, so a client can send many requests without waiting for the responses and
+ * the server can answer them in any order.
+ */
+public final class NioProtocol
+{
+    /**
+     * Size of a frame header: the length of the rest of the frame and the request id
+     */
+    public static final int HEADER_SIZE = 4 + 8;
+
+    /**
+     * The largest frame accepted, attachments are read in chunks and history in pages so only a file message which
+     * is send in one piece comes close to it
+     */
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The classes a request may contain: the request itself, the argument types of the administration and the shared
+     * classes, with limits on nesting, references and array lengths, so a peer cannot make the server deserialize
+     * anything else. An array holds at most a chunk of an attachment.
+     */
+    private static final ObjectInputFilter REQUEST_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=16;maxrefs=100000;maxarray=" + IFileStorage.CHUNK_SIZE + ";maxbytes=" + MAX_FRAME_SIZE + ";"
+            + "server.logic.NioProtocol$Request;java.lang.Object;java.lang.String;java.lang.Number;java.lang.Long;"
+            + "java.lang.Integer;java.util.ArrayList;java.util.Arrays$ArrayList;java.util.CollSer;"
+            + "java.util.ImmutableCollections$List12;java.util.ImmutableCollections$ListN;shared.*;!*");
+
+    /**
+     * Constructor is private, only static methods are used
+     */
+    private NioProtocol()
+    {
+    }
+
+    /**
+     * Gets the signature by which a method of the administration is called, which tells overloads apart
+     * @param method of the administration
+     * @return a string containing the name and parameter types of the method
+     */
+    public static String signature(Method method)
+    {
+        StringBuilder signature = new StringBuilder(method.getName()).append('(');
+
+        for (Class<?> parameterType : method.getParameterTypes())
+        {
+            if (signature.charAt(signature.length() - 1) != '(')
+            {
+                signature.append(',');
+            }
+            signature.append(parameterType.getName());
+        }
+
+        return signature.append(')').toString();
+    }
+
+    /**
+     * Encodes a frame
+     * @param requestId of the request the frame belongs to
+     * @param body of the frame, a request or a response
+     * @return the complete frame, ready to be written
+     * @throws IOException if the body cannot be serialized or is too large
+     */
+    public static ByteBuffer encode(long requestId, Serializable body) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream header = new DataOutputStream(bytes))
+        {
+            header.writeInt(0);
+            header.writeLong(requestId);
+
+            try (ObjectOutputStream output = new ObjectOutputStream(header))
+            {
+                output.writeObject(body);
+            }
+        }
+
+        if (bytes.size() - 4 > MAX_FRAME_SIZE)
+        {
+            throw new IOException("Frame is too large");
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.capacity() - 4);
+        return frame;
+    }
+
+    /**
+     * Decodes the body of a frame sent by the server
+     * @param body the bytes after the header
+     * @return the response
+     * @throws IOException if the body cannot be deserialized
+     */
+    public static Object decode(byte[] body) throws IOException
+    {
+        return decode(body, null);
+    }
+
+    /**
+     * Decodes the body of a frame sent by a client, only the classes a request may contain are deserialized
+     * @param body the bytes after the header
+     * @return the request
+     * @throws IOException if the body cannot be deserialized or does not contain a request
+     */
+    public static Request decodeRequest(byte[] body) throws IOException
+    {
+        Object request = decode(body, REQUEST_FILTER);
+
+        if (!(request instanceof Request))
+        {
+            throw new IOException("Frame does not contain a request");
+        }
+
+        return (Request) request;
+    }
+
+    /**
+     * Decodes the body of a frame
+     * @param body the bytes after the header
+     * @param filter which decides which classes are deserialized, null to use the filter of the process
+     * @return the deserialized body
+     * @throws IOException if the body cannot be deserialized or is rejected by the filter
+     */
+    private static Object decode(byte[] body, ObjectInputFilter filter) throws IOException
+    {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(body)))
+        {
+            if (filter != null)
+            {
+                input.setObjectInputFilter(filter);
+            }
+            return input.readObject();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException("Unknown frame contents", e);
+        }
+    }
+
+    /**
+     * A call of a method of the administration
+     */
+    public static final class Request implements Serializable
+    {
+        /**
+         * version of the serialized form
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the signature of the called method
+         */
+        private final String signature;
+
+        /**
+         * the arguments of the call, null if the method has no parameters
+         */
+        private final Object[] arguments;
+
+        /**
+         * Constructor of the request
+         * @param signature of the called method
+         * @param arguments of the call
+         */
+        public Request(String signature, Object[] arguments)
+        {
+            this.signature = signature;
+            this.arguments = arguments;
+        }
+
+        /**
+         * gets the signature of the called method
+         * @return a string containing the signature
+         */
+        public String getSignature()
+        {
+            return signature;
+        }
+
+        /**
+         * gets the arguments of the call
+         * @return the arguments, null if the method has no parameters
+         */
+        public Object[] getArguments()
+        {
+            return arguments;
+        }
+    }
+
+    /**
+     * The outcome of a call, either a result or a failure
+     */
+    public static final class Response implements Serializable
+    {
+        /**
+         * version of the serialized form
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the value returned by the method, null for void methods
+         */
+        private final Object result;
+
+        /**
+         * the exception thrown by the method, null if it returned normally
+         */
+        private final Throwable failure;
+
+        /**
+         * Constructor of the response
+         * @param result returned by the method
+         * @param failure thrown by the method
+         */
+        public Response(Object result, Throwable failure)
+        {
+            this.result = result;
+            this.failure = failure;
+        }
+
+        /**
+         * gets the value returned by the method
+         * @return the result, null for void methods
+         */
+        public Object getResult()
+        {
+            return result;
+        }
+
+        /**
+         * gets the exception thrown by the method
+         * @return the failure, null if the method returned normally
+         */
+        public Throwable getFailure()
+        {
+            return failure;
+        }
+    }
+}
@@ -1,14 +1,25 @@
 package server.logic;
 
-import bootstrapper.ServerProgram;
 import exceptions.InvalidArgumentException;
+import fileserver.logic.TransferTicket;
+import shared.BulkMessage;
+import shared.BulkSendResult;
+import shared.ChatHistoryPage;
+import shared.ChatSummary;
 import shared.Message;
 import shared.SerializableChat;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -17,9 +28,9 @@ import java.util.concurrent.atomic.AtomicLong;
 public class ServerAdministration extends UnicastRemoteObject implements IAdministration
 {
     /**
-     * The class which created this class, passes connection data
+     * The router through which logged in clients subscribe to changes
      */
-    private final ServerProgram serverProgram;
+    private final TopicRouter topicRouter;
 
     /**
      * The next available session id
@@ -27,34 +38,133 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
     private AtomicLong nextSessionId;
 
     /**
-     * ALl users that are currently registered on the server
+     * All users that are currently registered on the server, indexed by username
      */
-    private List<User> users;
+    private final ConcurrentMap<String, User> usersByUsername;
 
     /**
-     * A synchronizer object to prevent data from being accessed at the same time in multiple locations
+     * All users that are currently logged in, indexed by session id
+     */
+    private final ConcurrentMap<Long, User> usersBySessionId;
+
+    /**
+     * The log where all chats and messages are stored durably
+     */
+    private final MessageLog messageLog;
+
+    /**
+     * A synchronizer object used to prevent two users from registering the same username at the same time,
+     * lookups never use this lock
      */
     private final Object synchronizer;
 
     /**
      * The constructor of the server administration
-     * @param serverProgram which initiated this class
      * @throws RemoteException if something goes wrong in setting up the connections
+     * @throws IOException if the message log cannot be opened or replayed
      */
-    public ServerAdministration(ServerProgram serverProgram) throws RemoteException
+    public ServerAdministration() throws IOException
     {
         super();
 
-        this.serverProgram = serverProgram;
+        topicRouter = new TopicRouter(this);
 
-        this.users = new ArrayList<>();
+        usersByUsername = new ConcurrentHashMap<>();
+        usersBySessionId = new ConcurrentHashMap<>();
         nextSessionId = new AtomicLong(1);
 
         synchronizer = new Object();
+
+        messageLog = new MessageLog(Paths.get(MessageLog.DEFAULT_DIRECTORY));
+        restore();
+    }
+
+    /**
+     * Gets the router through which logged in clients subscribe to changes, it has to be bound in the registry
+     * @return the topic router
+     */
+    public ITopicRouter getTopicRouter()
+    {
+        return topicRouter;
+    }
+
+    /**
+     * Restores all users, contacts and chats out of the message log. A chat is only attached to participants whose
+     * account is restored as well, chats of accounts which were never stored stay unattached so nobody else can
+     * claim them by registering the same username.
+     * @throws IOException if the message log cannot be replayed
+     */
+    private void restore() throws IOException
+    {
+        Map<Long, Chat> restoredChats = new HashMap<>();
+
+        messageLog.replay(new MessageLog.ReplayListener()
+        {
+            @Override
+            public void userRegistered(String username, Credentials credentials)
+            {
+                usersByUsername.put(username, new User(username, credentials, messageLog));
+            }
+
+            @Override
+            public void contactsChanged(String username, List<String> contactNames)
+            {
+                User user = usersByUsername.get(username);
+                if (user == null)
+                {
+                    return;
+                }
+
+                List<User> contacts = new ArrayList<>();
+                for (String contactName : contactNames)
+                {
+                    User contact = usersByUsername.get(contactName);
+                    if (contact != null)
+                    {
+                        contacts.add(contact);
+                    }
+                }
+                user.restoreContacts(contacts);
+            }
+
+            @Override
+            public void chatCreated(long chatId, List<String> participantNames)
+            {
+                Chat chat = new Chat(chatId, participantNames, messageLog);
+                restoredChats.put(chatId, chat);
+
+                for (String participantName : participantNames)
+                {
+                    User participant = usersByUsername.get(participantName);
+                    if (participant != null)
+                    {
+                        chat.restoreParticipant(participant);
+                    }
+                }
+            }
+
+            @Override
+            public void messageAppended(long chatId, long sequenceNumber, long locator)
+            {
+                Chat chat = restoredChats.get(chatId);
+                if (chat != null)
+                {
+                    chat.restoreMessage(sequenceNumber, locator);
+                }
+            }
+        });
+
+        System.out.printf("Server: restored %d users and %d chats out of the message log%n", usersByUsername.size(), restoredChats.size());
     }
 
     @Override
     public long login(String username, String password) throws RemoteException
+    {
+        return login(username, password, 0);
+    }
+
+    @Override
+    public long login(String username, String password, int capabilities) throws RemoteException
     {
         if (username == null || username.isEmpty())
         {
@@ -66,35 +176,54 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
             throw new IllegalArgumentException("Password can't be null");
         }
 
-        long returnable = -1;
+        User user;
 
-        synchronized (synchronizer)
+        try
+        {
+            user = getUserByUsername(username);
+        }
+        catch (InvalidArgumentException e)
         {
-            try
+            return -1;
+        }
+
+        long sessionId = nextFreeSessionId();
+
+        synchronized (user)
+        {
+            long previousSessionId = user.getSessionId();
+
+            if (!user.login(password, sessionId, (capabilities & CAPABILITY_COMPRESSION) != 0))
             {
-                while (getUserBySessionId(nextSessionId.get()) != null)
-                {
-                    nextSessionId.incrementAndGet();
-                }
+                return -1;
             }
-            catch (InvalidArgumentException ignored)
-            { }
 
-            try
+            if (previousSessionId > 0)
             {
-                if (getUserByUsername(username).login(password, nextSessionId.get()))
-                {
-                    returnable = nextSessionId.getAndIncrement();
-                }
+                usersBySessionId.remove(previousSessionId, user);
             }
-            catch (InvalidArgumentException e)
+            usersBySessionId.put(sessionId, user);
+        }
+
+        return sessionId;
+    }
+
+    /**
+     * Gets a session id which is not in use by any logged in user
+     * @return an unused session id
+     */
+    private long nextFreeSessionId()
+    {
+        while (true)
+        {
+            long sessionId = nextSessionId.getAndIncrement();
+            checkMaxSessionId();
+
+            if (sessionId > 0 && !usersBySessionId.containsKey(sessionId))
             {
-                return -1;
+                return sessionId;
             }
         }
-        checkMaxSessionId();
-
-        return returnable;
     }
 
     /**
@@ -102,7 +231,7 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
      */
     private void checkMaxSessionId()
     {
-        if (nextSessionId.get() == Long.MAX_VALUE - 1)
+        if (nextSessionId.get() >= Long.MAX_VALUE - 1)
         {
             nextSessionId.set(1);
         }
@@ -110,6 +239,12 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
 
     @Override
     public long register(String username, String password) throws RemoteException
+    {
+        return register(username, password, 0);
+    }
+
+    @Override
+    public long register(String username, String password, int capabilities) throws RemoteException
     {
         if (username == null || username.isEmpty())
         {
@@ -125,7 +260,18 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
         {
             if (!isExistingUser(username))
             {
-                users.add(new User(username, password, serverProgram));
+                User user = new User(username, password, messageLog);
+
+                try
+                {
+                    messageLog.appendUser(username, user.getCredentials());
+                }
+                catch (IOException e)
+                {
+                    throw new RemoteException("Cannot write to the message log", e);
+                }
+
+                usersByUsername.put(username, user);
             }
             else
             {
@@ -133,13 +279,21 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
             }
         }
 
-        return login(username, password);
+        return login(username, password, capabilities);
     }
 
     @Override
     public void logout(long sessionId) throws RemoteException, InvalidArgumentException
     {
-        getUserBySessionId(sessionId).logout();
+        User user = getUserBySessionId(sessionId);
+
+        synchronized (user)
+        {
+            if (usersBySessionId.remove(sessionId, user))
+            {
+                user.logout();
+            }
+        }
     }
 
     @Override
@@ -149,7 +303,7 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
     }
 
     @Override
-    public void removeContact(long sessionId, String contactName) throws InvalidArgumentException
+    public void removeContact(long sessionId, String contactName) throws InvalidArgumentException, RemoteException
     {
         getUserBySessionId(sessionId).removeContact(contactName);
     }
@@ -167,11 +321,96 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
     }
 
     @Override
-    public List<SerializableChat> getParticipatingChats(long sessionId) throws InvalidArgumentException
+    public List<BulkSendResult> sendMessages(long sessionId, List<BulkMessage> messages) throws InvalidArgumentException, RemoteException
+    {
+        if (messages == null)
+        {
+            throw new InvalidArgumentException("No messages given");
+        }
+
+        return getUserBySessionId(sessionId).sendMessages(messages);
+    }
+
+    @Override
+    public long getAttachmentSize(long sessionId, long chatId, String storedName) throws RemoteException, InvalidArgumentException, FileNotFoundException
+    {
+        return getUserBySessionId(sessionId).getAttachmentSize(chatId, storedName);
+    }
+
+    @Override
+    public byte[] readAttachment(long sessionId, long chatId, String storedName, long offset, int length) throws RemoteException, InvalidArgumentException, FileNotFoundException
+    {
+        return getUserBySessionId(sessionId).readAttachment(chatId, storedName, offset, length);
+    }
+
+    @Override
+    public TransferTicket requestAttachmentDownload(long sessionId, long chatId, String storedName) throws RemoteException, InvalidArgumentException, FileNotFoundException
+    {
+        return getUserBySessionId(sessionId).requestAttachmentDownload(chatId, storedName);
+    }
+
+    @Override
+    public long openAttachmentUpload(long sessionId, long chatId, String filename) throws RemoteException, InvalidArgumentException
+    {
+        return getUserBySessionId(sessionId).openAttachmentUpload(chatId, filename);
+    }
+
+    @Override
+    public void writeAttachmentChunk(long sessionId, long uploadId, long offset, byte[] chunk) throws RemoteException, InvalidArgumentException
+    {
+        getUserBySessionId(sessionId).writeAttachmentChunk(uploadId, offset, chunk);
+    }
+
+    @Override
+    public TransferTicket requestAttachmentUpload(long sessionId, long uploadId, long length) throws RemoteException, InvalidArgumentException
+    {
+        return getUserBySessionId(sessionId).requestAttachmentUpload(uploadId, length);
+    }
+
+    @Override
+    public void commitAttachmentUpload(long sessionId, long uploadId) throws RemoteException, InvalidArgumentException
+    {
+        getUserBySessionId(sessionId).commitAttachmentUpload(uploadId);
+    }
+
+    @Override
+    public void abortAttachmentUpload(long sessionId, long uploadId) throws RemoteException, InvalidArgumentException
+    {
+        getUserBySessionId(sessionId).abortAttachmentUpload(uploadId);
+    }
+
+    @Override
+    public List<SerializableChat> getParticipatingChats(long sessionId) throws RemoteException, InvalidArgumentException
     {
         return getUserBySessionId(sessionId).getParticipatingChats();
     }
 
+    @Override
+    public List<ChatSummary> getChatSummaries(long sessionId) throws RemoteException, InvalidArgumentException
+    {
+        return getUserBySessionId(sessionId).getChatSummaries();
+    }
+
+    @Override
+    public ChatHistoryPage getChatHistory(long sessionId, long chatId, long beforeSequenceNumber, int limit) throws RemoteException, InvalidArgumentException
+    {
+        if (limit < 1 || limit > ChatHistoryPage.MAX_PAGE_SIZE)
+        {
+            throw new InvalidArgumentException(String.format("Limit must be between 1 and %d", ChatHistoryPage.MAX_PAGE_SIZE));
+        }
+
+        User user = getUserBySessionId(sessionId);
+        ChatHistoryPage page = user.getChatHistory(chatId, beforeSequenceNumber, limit);
+
+        return user.isCompressionNegotiated() ? page.withCompression() : page;
+    }
+
+    @Override
+    public void markChatRead(long sessionId, long chatId, long sequenceNumber) throws InvalidArgumentException
+    {
+        getUserBySessionId(sessionId).markChatRead(chatId, sequenceNumber);
+    }
+
     @Override
     public List<String> getContacts(long sessionId) throws InvalidArgumentException
     {
@@ -185,15 +424,7 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
      */
     private boolean isExistingUser(String username)
     {
-        try
-        {
-            getUserByUsername(username);
-            return true;
-        }
-        catch (InvalidArgumentException e)
-        {
-            return false;
-        }
+        return username != null && usersByUsername.containsKey(username);
     }
 
     /**
@@ -202,25 +433,21 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
      * @return the user which is linked to this session id
      * @throws InvalidArgumentException if user session was not found
      */
-    private User getUserBySessionId(long sessionId) throws InvalidArgumentException
+    User getUserBySessionId(long sessionId) throws InvalidArgumentException
     {
         if (sessionId == -1 || sessionId == 0)
         {
             throw new IllegalArgumentException("Session id not in use");
         }
 
-        synchronized (synchronizer)
+        User user = usersBySessionId.get(sessionId);
+
+        if (user == null)
         {
-            for (User user : users)
-            {
-                if (user.getSessionId() == sessionId)
-                {
-                    return user;
-                }
-            }
+            throw new InvalidArgumentException("User session not found");
         }
 
-        throw new InvalidArgumentException("User session not found");
+        return user;
     }
 
     /**
@@ -231,15 +458,11 @@ public class ServerAdministration extends UnicastRemoteObject implements IAdmini
      */
     private User getUserByUsername(String username) throws InvalidArgumentException
     {
-        synchronized (synchronizer)
+        User user = username == null ? null : usersByUsername.get(username);
+
+        if (user != null)
         {
-            for (User user : users)
-            {
-                if (user.getUsername().equals(username))
-                {
-                    return user;
-                }
-            }
+            return user;
         }
 
         throw new InvalidArgumentException(String.format("User by the name of %s not found", username));
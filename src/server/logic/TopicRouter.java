@@ -0,0 +1,60 @@
+package server.logic;
+
+import exceptions.InvalidArgumentException;
+import shared.fontyspublisher.IRemotePropertyListener;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The single exported object through which clients subscribe to the publisher of their logged in user
+ */
+class TopicRouter extends UnicastRemoteObject implements ITopicRouter
+{
+    /**
+     * The administration which knows the logged in users
+     */
+    private final ServerAdministration serverAdministration;
+
+    /**
+     * The constructor of the topic router
+     * @param serverAdministration which knows the logged in users
+     * @throws RemoteException if something goes wrong in exporting the router
+     */
+    TopicRouter(ServerAdministration serverAdministration) throws RemoteException
+    {
+        super();
+
+        this.serverAdministration = serverAdministration;
+    }
+
+    @Override
+    public void subscribe(long sessionId, IRemotePropertyListener listener, String topic) throws InvalidArgumentException
+    {
+        if (listener == null)
+        {
+            throw new InvalidArgumentException("Listener can't be null");
+        }
+
+        serverAdministration.getUserBySessionId(sessionId).subscribe(listener, topic);
+    }
+
+    @Override
+    public void unsubscribe(long sessionId, IRemotePropertyListener listener, String topic) throws InvalidArgumentException
+    {
+        serverAdministration.getUserBySessionId(sessionId).unsubscribe(listener, topic);
+    }
+
+    @Override
+    public List<String> resume(long sessionId, IRemotePropertyListener listener, Map<String, Long> lastSequenceNumbers) throws InvalidArgumentException
+    {
+        if (listener == null || lastSequenceNumbers == null)
+        {
+            throw new InvalidArgumentException("Listener and sequence numbers can't be null");
+        }
+
+        return serverAdministration.getUserBySessionId(sessionId).resume(listener, lastSequenceNumbers);
+    }
+}
@@ -1,15 +1,30 @@
 package server.logic;
 
 import exceptions.InvalidArgumentException;
+import fileserver.logic.TransferTicket;
+import shared.BulkMessage;
+import shared.BulkSendResult;
+import shared.ChatHistoryPage;
+import shared.ChatSummary;
+import shared.EncodedPayload;
 import shared.SerializableChat;
-import shared.fontyspublisher.RemotePublisher;
-import bootstrapper.ServerProgram;
+import shared.fontyspublisher.IRemotePropertyListener;
+import shared.fontyspublisher.Priority;
+import shared.fontyspublisher.PropertyKind;
+import shared.fontyspublisher.Publisher;
 import shared.Message;
 import shared.fontyspublisher.IRemotePublisherForDomain;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A user of the application
@@ -31,15 +46,25 @@ public class User implements IRemotePublisherForDomain
      */
     public static final String CONTACT_LIST_UPDATER = "contactListUpdater";
 
+    /**
+     * constant used to inform the user client of stored attachments, delivered after all other changes
+     */
+    public static final String ATTACHMENT_UPDATER = "attachmentUpdater";
+
+    /**
+     * the maximum amount of attachments a user uploads at the same time
+     */
+    private static final int MAX_ATTACHMENT_UPLOADS = 4;
+
     /**
      * the username of the user
      */
     private final String username;
 
     /**
-     * the password of the user
+     * the salted hash of the password of the user
      */
-    private final String password;
+    private final Credentials credentials;
 
     /**
      * the session id of the user
@@ -57,41 +82,86 @@ public class User implements IRemotePublisherForDomain
     private final List<Chat> chats;
 
     /**
-     * a publisher which informs the client-side of changes on the server
+     * the sequence number of the last read message, per chat id
+     */
+    private final Map<Long, Long> readSequenceNumbers;
+
+    /**
+     * the log where the messages of new chats are stored
+     */
+    private final MessageLog messageLog;
+
+    /**
+     * the attachments the user is uploading, by upload id
+     */
+    private final Map<Long, AttachmentUpload> attachmentUploads;
+
+    /**
+     * a publisher which informs the client-side of changes on the server, only exists while the user is logged in
+     */
+    private volatile Publisher publisher;
+
+    /**
+     * whether the client of the current session supports compression of large chat events and history pages
      */
-    private RemotePublisher publisher;
+    private volatile boolean compressionNegotiated;
 
     /**
      * The constructor of the user
      * @param username of the user
      * @param password of the user
-     * @param serverProgram which is used to register the publisher
-     * @throws RemoteException if something goes wrong in the creation of the publisher
+     * @param messageLog where the messages of new chats are stored
+     */
+    User(String username, String password, MessageLog messageLog)
+    {
+        this(username, Credentials.create(checkPassword(password)), messageLog);
+    }
+
+    /**
+     * The constructor of a user which is restored out of the message log
+     * @param username of the user
+     * @param credentials of the user
+     * @param messageLog where the messages of new chats are stored
      */
-    User(String username, String password, ServerProgram serverProgram) throws RemoteException
+    User(String username, Credentials credentials, MessageLog messageLog)
     {
         if (username == null || username.isEmpty())
         {
             throw new IllegalArgumentException("Username can't be empty");
         }
 
+        this.username = username;
+        this.credentials = credentials;
+        this.messageLog = messageLog;
+
+        contacts = new CopyOnWriteArrayList<>();
+        chats = new CopyOnWriteArrayList<>();
+        readSequenceNumbers = new ConcurrentHashMap<>();
+        attachmentUploads = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Checks if a password may be used
+     * @param password to be checked
+     * @return the password
+     */
+    private static String checkPassword(String password)
+    {
         if (password == null || password.isEmpty())
         {
             throw new IllegalArgumentException("Password can't be empty");
         }
 
-        this.username = username;
-        this.password = password;
-
-        contacts = new ArrayList<>();
-        chats = new ArrayList<>();
-
-        publisher = new RemotePublisher();
-        publisher.registerProperty(REGISTRY_UPDATER);
-        publisher.registerProperty(CHAT_LIST_UPDATER);
-        publisher.registerProperty(CONTACT_LIST_UPDATER);
+        return password;
+    }
 
-        serverProgram.registerProperty(username, publisher);
+    /**
+     * gets the credentials of the user
+     * @return the salted hash of the password of the user
+     */
+    Credentials getCredentials()
+    {
+        return credentials;
     }
 
     /**
@@ -130,15 +200,34 @@ public class User implements IRemotePublisherForDomain
 
     /**
      * logs the user into the system
-     * @param password of the user (must be equal to the local password variable)
+     * @param password of the user (must match the credentials of the user)
      * @param newSessionId the new session id allocated if the password is correct
+     * @param compression whether the client of the new session supports compression
      * @return true if the password is correct otherwise false
      */
-    boolean login(String password, long newSessionId)
+    boolean login(String password, long newSessionId, boolean compression)
     {
-        if (this.password.equals(password))
+        if (credentials.matches(password))
         {
             this.sessionId = newSessionId;
+            this.compressionNegotiated = compression;
+
+            if (publisher == null)
+            {
+                publisher = new Publisher();
+                publisher.registerProperty(REGISTRY_UPDATER, Priority.CONTROL);
+                publisher.registerProperty(CHAT_LIST_UPDATER, Priority.CONTROL, PropertyKind.STATE);
+                publisher.registerProperty(CONTACT_LIST_UPDATER, Priority.CONTROL, PropertyKind.STATE);
+                publisher.registerProperty(ATTACHMENT_UPDATER, Priority.BULK);
+
+                for (Chat chat : chats)
+                {
+                    publisher.registerProperty(chat.getChatSubscriptionName());
+                }
+
+                publisher.registerMetrics("user " + username);
+            }
+
             return true;
         }
 
@@ -146,18 +235,105 @@ public class User implements IRemotePublisherForDomain
     }
 
     /**
-     * logs the user out of the system
+     * checks if the client of the current session supports compression
+     * @return true if large payloads may be compressed, otherwise false
+     */
+    boolean isCompressionNegotiated()
+    {
+        return compressionNegotiated;
+    }
+
+    /**
+     * logs the user out of the system, the publisher is dropped so offline users hold no delivery resources
      */
     void logout()
     {
         sessionId = -1;
+        Publisher current = publisher;
+        publisher = null;
+
+        if (current != null)
+        {
+            current.unregisterMetrics();
+        }
+
+        for (AttachmentUpload upload : attachmentUploads.values())
+        {
+            attachmentUploads.remove(upload.getUploadId());
+
+            try
+            {
+                upload.abort();
+            }
+            catch (RemoteException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Subscribes a listener to a topic of this user
+     * @param listener to be informed of changes
+     * @param topic to be subscribed to, null subscribes to all topics
+     * @throws InvalidArgumentException if the user is not logged in or the topic does not exist
+     */
+    void subscribe(IRemotePropertyListener listener, String topic) throws InvalidArgumentException
+    {
+        Publisher current = publisher;
+
+        if (current == null)
+        {
+            throw new InvalidArgumentException("User is not logged in");
+        }
+
+        if (!current.getProperties().contains(topic))
+        {
+            throw new InvalidArgumentException("Topic not found");
+        }
+
+        current.subscribeRemoteListener(listener, topic);
+    }
+
+    /**
+     * Subscribes a listener again after its connection was lost, only the events it missed are send again
+     * @param listener to be informed of changes
+     * @param lastSequenceNumbers sequence number of the last received event, per topic
+     * @return the topics of which the listener has to reload the complete state
+     * @throws InvalidArgumentException if the user is not logged in
+     */
+    List<String> resume(IRemotePropertyListener listener, Map<String, Long> lastSequenceNumbers) throws InvalidArgumentException
+    {
+        Publisher current = publisher;
+
+        if (current == null)
+        {
+            throw new InvalidArgumentException("User is not logged in");
+        }
+
+        return current.resumeRemoteListener(listener, lastSequenceNumbers);
+    }
+
+    /**
+     * Unsubscribes a listener from a topic of this user
+     * @param listener to be unsubscribed
+     * @param topic to be unsubscribed from, null unsubscribes from all topics
+     */
+    void unsubscribe(IRemotePropertyListener listener, String topic)
+    {
+        Publisher current = publisher;
+
+        if (current != null)
+        {
+            current.unsubscribeRemoteListener(listener, topic);
+        }
     }
 
     /**
      * adds the specified contact to the user
      * @param contact to be added (if he/she isn't already a contact)
      * @return true if the user is added as a contact otherwise false
-     * @throws RemoteException if something goes wrong in informing the clients
+     * @throws RemoteException if something goes wrong in writing to the message log or informing the clients
      */
     boolean addContact(User contact) throws RemoteException
     {
@@ -166,34 +342,77 @@ public class User implements IRemotePublisherForDomain
             throw new IllegalArgumentException("contact cannot be null");
         }
 
-        if (!username.equals(contact.username))
+        if (username.equals(contact.username))
         {
-            if (!contacts.contains(contact) && contacts.add(contact))
-            {
-                inform(CONTACT_LIST_UPDATER, null, getContacts());
-                return true;
-            }
+            throw new IllegalArgumentException("You can't add yourself as a contact");
         }
-        else
+
+        synchronized (contacts)
         {
-            throw new IllegalArgumentException("You can't add yourself as a contact");
+            if (contacts.contains(contact) || !contacts.add(contact))
+            {
+                return false;
+            }
+
+            try
+            {
+                messageLog.appendContacts(username, getContacts());
+            }
+            catch (IOException e)
+            {
+                contacts.remove(contact);
+                throw new RemoteException("Cannot write to the message log", e);
+            }
         }
-        return false;
+
+        inform(CONTACT_LIST_UPDATER, null, getContacts());
+        return true;
     }
 
     /**
      * removes a contact of the user
      * @param contactName of the contact to be removed
+     * @throws RemoteException if something goes wrong in writing to the message log
      */
-    void removeContact(String contactName)
+    void removeContact(String contactName) throws RemoteException
     {
         try
         {
             User contact = getContactByName(contactName);
-            contacts.remove(contact);
+
+            synchronized (contacts)
+            {
+                if (contacts.remove(contact))
+                {
+                    messageLog.appendContacts(username, getContacts());
+                }
+            }
         }
         catch (InvalidArgumentException ignored)
         { }
+        catch (IOException e)
+        {
+            throw new RemoteException("Cannot write to the message log", e);
+        }
+    }
+
+    /**
+     * Restores the contacts of the user out of the message log, replaces all current contacts
+     * @param restoredContacts the contacts of the user
+     */
+    void restoreContacts(List<User> restoredContacts)
+    {
+        contacts.clear();
+        contacts.addAll(restoredContacts);
+    }
+
+    /**
+     * Restores a chat of the user out of the message log, the client is informed of it when the user logs in
+     * @param chat the user participates in
+     */
+    void restoreChat(Chat chat)
+    {
+        chats.add(chat);
     }
 
     /**
@@ -204,7 +423,7 @@ public class User implements IRemotePublisherForDomain
      */
     void newChat(String contactName) throws RemoteException, InvalidArgumentException
     {
-        new Chat(this, getContactByName(contactName));
+        new Chat(this, getContactByName(contactName), messageLog);
     }
 
     /**
@@ -216,14 +435,250 @@ public class User implements IRemotePublisherForDomain
      */
     void sendMessage(long chatId, Message message) throws RemoteException, InvalidArgumentException
     {
-        getChatById(chatId).sendMessage(message);
+        markChatRead(chatId, getChatById(chatId).sendMessage(message));
+    }
+
+    /**
+     * sends many messages at once, every message is put in the mailbox of its chat before waiting for any of them,
+     * so the chats append their messages in parallel and messages to the same chat share a batch
+     * @param messages to be send, each together with the id of its chat
+     * @return the result of every message, in the same order as the messages
+     */
+    List<BulkSendResult> sendMessages(List<BulkMessage> messages)
+    {
+        List<CompletableFuture<Long>> pending = new ArrayList<>(messages.size());
+
+        for (BulkMessage bulkMessage : messages)
+        {
+            if (bulkMessage == null || bulkMessage.getMessage() == null)
+            {
+                pending.add(CompletableFuture.failedFuture(new InvalidArgumentException("No message given")));
+                continue;
+            }
+
+            try
+            {
+                pending.add(getChatById(bulkMessage.getChatId()).submitMessage(bulkMessage.getMessage()));
+            }
+            catch (InvalidArgumentException e)
+            {
+                pending.add(CompletableFuture.failedFuture(e));
+            }
+        }
+
+        List<BulkSendResult> results = new ArrayList<>(messages.size());
+
+        for (int i = 0; i < messages.size(); i++)
+        {
+            long chatId = messages.get(i) == null ? 0 : messages.get(i).getChatId();
+
+            try
+            {
+                long sequenceNumber = pending.get(i).join();
+                readSequenceNumbers.merge(chatId, sequenceNumber, Math::max);
+                results.add(BulkSendResult.sent(chatId, sequenceNumber));
+            }
+            catch (CompletionException e)
+            {
+                results.add(BulkSendResult.failed(chatId, String.valueOf(e.getCause().getMessage())));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Gets a summary of all chats the user participates in
+     * @return a list of chat summaries, without message history
+     * @throws RemoteException if something goes wrong in reading the message log
+     */
+    List<ChatSummary> getChatSummaries() throws RemoteException
+    {
+        List<ChatSummary> returnable = new ArrayList<>();
+
+        for (Chat chat : chats)
+        {
+            returnable.add(chat.getSummary(readSequenceNumbers.getOrDefault(chat.getChatId(), 0L)));
+        }
+
+        return returnable;
+    }
+
+    /**
+     * Gets a page of messages out of the history of the specified chat
+     * @param chatId of the chat
+     * @param beforeSequenceNumber only messages with a lower sequence number are returned
+     * @param limit maximum amount of messages to be returned
+     * @return a page of messages, ordered from old to new
+     * @throws RemoteException if something goes wrong in reading the message log
+     * @throws InvalidArgumentException if the chat with the specified id does not exist
+     */
+    ChatHistoryPage getChatHistory(long chatId, long beforeSequenceNumber, int limit) throws RemoteException, InvalidArgumentException
+    {
+        return getChatById(chatId).getHistory(beforeSequenceNumber, limit);
+    }
+
+    /**
+     * Gets the size of an attachment which was send in the specified chat
+     * @param chatId of the chat
+     * @param storedName of the attachment
+     * @return the size of the attachment in bytes
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     * @throws InvalidArgumentException if the chat with the specified id does not exist
+     * @throws FileNotFoundException if the attachment cannot be found
+     */
+    long getAttachmentSize(long chatId, String storedName) throws RemoteException, InvalidArgumentException, FileNotFoundException
+    {
+        return getChatById(chatId).getAttachmentSize(storedName);
+    }
+
+    /**
+     * Reads a range of an attachment which was send in the specified chat
+     * @param chatId of the chat
+     * @param storedName of the attachment
+     * @param offset of the first byte to be read
+     * @param length maximum amount of bytes to be read
+     * @return a byte array containing the data
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     * @throws InvalidArgumentException if the chat with the specified id does not exist
+     * @throws FileNotFoundException if the attachment cannot be found
+     */
+    byte[] readAttachment(long chatId, String storedName, long offset, int length) throws RemoteException, InvalidArgumentException, FileNotFoundException
+    {
+        return getChatById(chatId).readAttachment(storedName, offset, length);
+    }
+
+    /**
+     * Hands out a ticket to download an attachment which was send in the specified chat from the data channel of the file server
+     * @param chatId of the chat
+     * @param storedName of the attachment
+     * @return a ticket, null if the file server has no data channel
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     * @throws InvalidArgumentException if the chat with the specified id does not exist
+     * @throws FileNotFoundException if the attachment cannot be found
+     */
+    TransferTicket requestAttachmentDownload(long chatId, String storedName) throws RemoteException, InvalidArgumentException, FileNotFoundException
+    {
+        return getChatById(chatId).requestAttachmentDownload(storedName);
+    }
+
+    /**
+     * Starts an upload of an attachment in the specified chat
+     * @param chatId of the chat
+     * @param filename of the attachment
+     * @return the id of the upload
+     * @throws RemoteException if too many uploads are running or the file storage cannot start the upload
+     * @throws InvalidArgumentException if the chat with the specified id does not exist or no filename is given
+     */
+    long openAttachmentUpload(long chatId, String filename) throws RemoteException, InvalidArgumentException
+    {
+        if (filename == null || filename.isEmpty())
+        {
+            throw new InvalidArgumentException("No filename given");
+        }
+
+        Chat chat = getChatById(chatId);
+
+        if (attachmentUploads.size() >= MAX_ATTACHMENT_UPLOADS)
+        {
+            throw new RemoteException("Too many attachments are being uploaded, please try again later");
+        }
+
+        AttachmentUpload upload = chat.openAttachmentUpload(filename);
+        attachmentUploads.put(upload.getUploadId(), upload);
+        return upload.getUploadId();
+    }
+
+    /**
+     * Writes the next chunk of an attachment which is being uploaded
+     * @param uploadId of the upload
+     * @param offset of the chunk within the attachment
+     * @param chunk the data to be written
+     * @throws RemoteException if something goes wrong in writing the chunk
+     * @throws InvalidArgumentException if the upload does not exist or the chunk is not valid
+     */
+    void writeAttachmentChunk(long uploadId, long offset, byte[] chunk) throws RemoteException, InvalidArgumentException
+    {
+        getAttachmentUpload(uploadId).writeChunk(offset, chunk);
+    }
+
+    /**
+     * Hands out a ticket to upload the rest of an attachment over the data channel of the file server
+     * @param uploadId of the upload
+     * @param length the amount of bytes which will be uploaded
+     * @return a ticket, null if the file server has no data channel
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     * @throws InvalidArgumentException if the upload does not exist or the length is negative
+     */
+    TransferTicket requestAttachmentUpload(long uploadId, long length) throws RemoteException, InvalidArgumentException
+    {
+        return getAttachmentUpload(uploadId).requestTicket(length);
+    }
+
+    /**
+     * Stores an uploaded attachment and sends a file message which refers to it in its chat
+     * @param uploadId of the upload
+     * @throws RemoteException if the attachment cannot be stored or the message cannot be send
+     * @throws InvalidArgumentException if the upload does not exist
+     */
+    void commitAttachmentUpload(long uploadId) throws RemoteException, InvalidArgumentException
+    {
+        AttachmentUpload upload = getAttachmentUpload(uploadId);
+        attachmentUploads.remove(uploadId);
+        markChatRead(upload.getChat().getChatId(), upload.commit(username));
+    }
+
+    /**
+     * Discards an attachment which is being uploaded, nothing happens if the upload does not exist
+     * @param uploadId of the upload
+     * @throws RemoteException if something goes wrong in the connection to the file storage
+     */
+    void abortAttachmentUpload(long uploadId) throws RemoteException
+    {
+        AttachmentUpload upload = attachmentUploads.remove(uploadId);
+
+        if (upload != null)
+        {
+            upload.abort();
+        }
+    }
+
+    /**
+     * Gets an attachment which is being uploaded by this user
+     * @param uploadId of the upload
+     * @return the upload
+     * @throws InvalidArgumentException if this user has no upload with the specified id
+     */
+    private AttachmentUpload getAttachmentUpload(long uploadId) throws InvalidArgumentException
+    {
+        AttachmentUpload upload = attachmentUploads.get(uploadId);
+
+        if (upload == null)
+        {
+            throw new InvalidArgumentException("Upload not found");
+        }
+
+        return upload;
+    }
+
+    /**
+     * Marks all messages up to and including the specified sequence number as read
+     * @param chatId of the chat
+     * @param sequenceNumber of the last read message
+     * @throws InvalidArgumentException if the chat with the specified id does not exist
+     */
+    void markChatRead(long chatId, long sequenceNumber) throws InvalidArgumentException
+    {
+        getChatById(chatId);
+        readSequenceNumbers.merge(chatId, sequenceNumber, Math::max);
     }
 
     /**
      * Gets all chats the user participates in
      * @return a list of serializable (send able) chats
+     * @throws RemoteException if something goes wrong in reading the message log
      */
-    List<SerializableChat> getParticipatingChats()
+    List<SerializableChat> getParticipatingChats() throws RemoteException
     {
         List<SerializableChat> returnable = new ArrayList<>();
 
@@ -248,7 +703,7 @@ public class User implements IRemotePublisherForDomain
 
         inform(REGISTRY_UPDATER, null, chat.getChatSubscriptionName());
 
-        inform(CHAT_LIST_UPDATER, null, getParticipatingChats());
+        inform(CHAT_LIST_UPDATER, null, getChatSummaries());
     }
 
     /**
@@ -290,27 +745,65 @@ public class User implements IRemotePublisherForDomain
     }
 
     @Override
-    public void registerProperty(String property) throws RemoteException
+    public void registerProperty(String property)
     {
-        publisher.registerProperty(property);
-        publisher.inform(REGISTRY_UPDATER, null, property);
+        Publisher current = publisher;
+
+        if (current != null)
+        {
+            current.registerProperty(property);
+            current.inform(REGISTRY_UPDATER, null, property);
+        }
     }
 
     @Override
-    public void unregisterProperty(String property) throws RemoteException
+    public void unregisterProperty(String property)
     {
-        publisher.unregisterProperty(property);
+        Publisher current = publisher;
+
+        if (current != null)
+        {
+            current.unregisterProperty(property);
+        }
     }
 
+    /**
+     * Informs the listeners of the logged in user, nothing happens if the user is not logged in. Encoded payloads
+     * are compressed if the client supports it
+     * @param property which changed
+     * @param oldValue of the property
+     * @param newValue of the property
+     */
     @Override
-    public void inform(String property, Object oldValue, Object newValue) throws RemoteException
+    public void inform(String property, Object oldValue, Object newValue)
     {
-        publisher.inform(property, oldValue, newValue);
+        Publisher current = publisher;
+
+        if (current != null)
+        {
+            if (compressionNegotiated && newValue instanceof EncodedPayload)
+            {
+                newValue = ((EncodedPayload) newValue).compressed();
+            }
+
+            current.inform(property, oldValue, newValue);
+        }
     }
 
     @Override
-    public List<String> getProperties() throws RemoteException
+    public List<String> getProperties()
     {
-        return publisher.getProperties();
+        List<String> properties = new ArrayList<>();
+        properties.add(REGISTRY_UPDATER);
+        properties.add(CHAT_LIST_UPDATER);
+        properties.add(CONTACT_LIST_UPDATER);
+        properties.add(ATTACHMENT_UPDATER);
+
+        for (Chat chat : chats)
+        {
+            properties.add(chat.getChatSubscriptionName());
+        }
+
+        return properties;
     }
 }
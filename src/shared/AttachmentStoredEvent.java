@@ -0,0 +1,80 @@
+package shared;
+
+import java.io.Serializable;
+
+/**
+ * Event send to the participants of a chat when the upload of an attachment has finished
+ */
+public class AttachmentStoredEvent implements Serializable
+{
+    /**
+     * the id of the chat the attachment was send in
+     */
+    private final long chatId;
+
+    /**
+     * the sequence number of the file message which refers to the attachment
+     */
+    private final long sequenceNumber;
+
+    /**
+     * the name under which the attachment is stored in the file storage
+     */
+    private final String storedName;
+
+    /**
+     * whether the attachment was stored successfully
+     */
+    private final boolean stored;
+
+    /**
+     * Constructor of the attachment stored event
+     * @param chatId of the chat the attachment was send in
+     * @param sequenceNumber of the file message which refers to the attachment
+     * @param storedName under which the attachment is stored
+     * @param stored true if the attachment was stored successfully, false if storing it failed
+     */
+    public AttachmentStoredEvent(long chatId, long sequenceNumber, String storedName, boolean stored)
+    {
+        this.chatId = chatId;
+        this.sequenceNumber = sequenceNumber;
+        this.storedName = storedName;
+        this.stored = stored;
+    }
+
+    /**
+     * gets the chat id
+     * @return a long value containing the id of the chat the attachment was send in
+     */
+    public long getChatId()
+    {
+        return chatId;
+    }
+
+    /**
+     * gets the sequence number of the file message
+     * @return a long value containing the sequence number of the file message which refers to the attachment
+     */
+    public long getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    /**
+     * gets the name under which the attachment is stored
+     * @return a string containing the stored name
+     */
+    public String getStoredName()
+    {
+        return storedName;
+    }
+
+    /**
+     * checks if the attachment was stored successfully
+     * @return true if the attachment can be downloaded, false if storing it failed
+     */
+    public boolean isStored()
+    {
+        return stored;
+    }
+}
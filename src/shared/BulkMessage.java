@@ -0,0 +1,48 @@
+package shared;
+
+import java.io.Serializable;
+
+/**
+ * A message together with the chat it has to be send in, used to send many messages in one call
+ */
+public class BulkMessage implements Serializable
+{
+    /**
+     * the id of the chat the message has to be send in
+     */
+    private final long chatId;
+
+    /**
+     * the message to be send
+     */
+    private final Message message;
+
+    /**
+     * Constructor of the bulk message
+     * @param chatId of the chat the message has to be send in
+     * @param message to be send
+     */
+    public BulkMessage(long chatId, Message message)
+    {
+        this.chatId = chatId;
+        this.message = message;
+    }
+
+    /**
+     * gets the chat id
+     * @return a long value containing the id of the chat the message has to be send in
+     */
+    public long getChatId()
+    {
+        return chatId;
+    }
+
+    /**
+     * gets the message
+     * @return the message to be send
+     */
+    public Message getMessage()
+    {
+        return message;
+    }
+}
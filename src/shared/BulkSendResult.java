@@ -0,0 +1,95 @@
+package shared;
+
+import java.io.Serializable;
+
+/**
+ * The result of sending one message of a bulk send
+ */
+public class BulkSendResult implements Serializable
+{
+    /**
+     * the id of the chat the message was send in
+     */
+    private final long chatId;
+
+    /**
+     * the sequence number assigned to the message, 0 if the message was not send
+     */
+    private final long sequenceNumber;
+
+    /**
+     * the reason the message was not send, null if it was send
+     */
+    private final String error;
+
+    /**
+     * Constructor of the bulk send result
+     * @param chatId of the chat the message was send in
+     * @param sequenceNumber assigned to the message, 0 if the message was not send
+     * @param error the reason the message was not send, null if it was send
+     */
+    private BulkSendResult(long chatId, long sequenceNumber, String error)
+    {
+        this.chatId = chatId;
+        this.sequenceNumber = sequenceNumber;
+        this.error = error;
+    }
+
+    /**
+     * Creates the result of a message which was send
+     * @param chatId of the chat the message was send in
+     * @param sequenceNumber assigned to the message
+     * @return the result
+     */
+    public static BulkSendResult sent(long chatId, long sequenceNumber)
+    {
+        return new BulkSendResult(chatId, sequenceNumber, null);
+    }
+
+    /**
+     * Creates the result of a message which could not be send
+     * @param chatId of the chat the message should have been send in
+     * @param error the reason the message was not send
+     * @return the result
+     */
+    public static BulkSendResult failed(long chatId, String error)
+    {
+        return new BulkSendResult(chatId, 0, error);
+    }
+
+    /**
+     * gets the chat id
+     * @return a long value containing the id of the chat the message was send in
+     */
+    public long getChatId()
+    {
+        return chatId;
+    }
+
+    /**
+     * gets the sequence number
+     * @return a long value containing the sequence number assigned to the message, 0 if the message was not send
+     */
+    public long getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    /**
+     * gets the error
+     * @return a string containing the reason the message was not send, null if it was send
+     */
+    public String getError()
+    {
+        return error;
+    }
+
+    /**
+     * checks if the message was send
+     * @return true if the message was send, false if it was not
+     */
+    public boolean isSent()
+    {
+        return error == null;
+    }
+}
@@ -0,0 +1,193 @@
+package shared;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A page of consecutive messages out of the history of a chat
+ */
+public class ChatHistoryPage implements Serializable
+{
+    /**
+     * cursor value used to request the most recent messages of a chat
+     */
+    public static final long LATEST = Long.MAX_VALUE;
+
+    /**
+     * the amount of messages requested when no specific amount is needed
+     */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    /**
+     * the maximum amount of messages the server returns in one page
+     */
+    public static final int MAX_PAGE_SIZE = 500;
+
+    /**
+     * the chat id of the chat the messages belong to
+     */
+    private final long chatId;
+
+    /**
+     * the sequence number of the first message in this page
+     */
+    private final long firstSequenceNumber;
+
+    /**
+     * the messages in this page, ordered from old to new, serialized as one batch by the message codec
+     */
+    private transient List<Message> messages;
+
+    /**
+     * whether the messages may be compressed when the page is serialized, only known to the sender
+     */
+    private final transient boolean compressible;
+
+    /**
+     * Constructor of the chat history page
+     * @param chatId of the chat the messages belong to
+     * @param firstSequenceNumber of the first message in the page
+     * @param messages in the page, ordered from old to new
+     */
+    public ChatHistoryPage(long chatId, long firstSequenceNumber, List<Message> messages)
+    {
+        this(chatId, firstSequenceNumber, messages, false);
+    }
+
+    /**
+     * Constructor of the chat history page which selects whether the messages may be compressed
+     * @param chatId of the chat the messages belong to
+     * @param firstSequenceNumber of the first message in the page
+     * @param messages in the page, ordered from old to new
+     * @param compressible whether the messages may be compressed when the page is serialized
+     */
+    private ChatHistoryPage(long chatId, long firstSequenceNumber, List<Message> messages, boolean compressible)
+    {
+        this.chatId = chatId;
+        this.firstSequenceNumber = firstSequenceNumber;
+        this.messages = messages;
+        this.compressible = compressible;
+    }
+
+    /**
+     * Creates a copy of this page which is compressed when it is serialized, used for clients which support compression
+     * @return the compressible copy
+     */
+    public ChatHistoryPage withCompression()
+    {
+        return new ChatHistoryPage(chatId, firstSequenceNumber, messages, true);
+    }
+
+    /**
+     * gets the chat id
+     * @return a long value containing the chat id
+     */
+    public long getChatId()
+    {
+        return chatId;
+    }
+
+    /**
+     * gets the sequence number of the first message in this page, this is the cursor used to request the previous page
+     * @return a long value containing the sequence number
+     */
+    public long getFirstSequenceNumber()
+    {
+        return firstSequenceNumber;
+    }
+
+    /**
+     * gets the sequence number of the last message in this page
+     * @return a long value containing the sequence number
+     */
+    public long getLastSequenceNumber()
+    {
+        return firstSequenceNumber + messages.size() - 1;
+    }
+
+    /**
+     * gets the messages in this page
+     * @return list of message objects, ordered from old to new
+     */
+    public List<Message> getMessages()
+    {
+        return messages;
+    }
+
+    /**
+     * checks if there are older messages than the ones in this page
+     * @return true if an older page can be requested, otherwise false
+     */
+    public boolean hasOlderMessages()
+    {
+        return firstSequenceNumber > 1;
+    }
+
+    /**
+     * Writes the page, the messages share one string table so the author is only written once. Large pages of a
+     * compressible page are compressed
+     * @param out to be written to
+     * @throws IOException if the page cannot be written
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+
+        if (!compressible)
+        {
+            out.writeBoolean(false);
+            MessageCodec.writeMessages(out, messages);
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream data = new DataOutputStream(bytes))
+        {
+            MessageCodec.writeMessages(data, messages);
+        }
+
+        boolean compress = bytes.size() >= Compression.THRESHOLD;
+        byte[] encoded = compress ? Compression.deflate(bytes.toByteArray()) : bytes.toByteArray();
+
+        out.writeBoolean(compress);
+
+        if (compress)
+        {
+            out.writeInt(encoded.length);
+        }
+
+        out.write(encoded);
+    }
+
+    /**
+     * Reads a page written by writeObject
+     * @param in to be read from
+     * @throws IOException if the page cannot be read
+     * @throws ClassNotFoundException if a class of the page is unknown
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+
+        if (!in.readBoolean())
+        {
+            messages = MessageCodec.readMessages(in);
+            return;
+        }
+
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+
+        try (DataInputStream data = new DataInputStream(Compression.inflate(encoded)))
+        {
+            messages = MessageCodec.readMessages(data);
+        }
+    }
+}
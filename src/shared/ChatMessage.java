@@ -8,6 +8,11 @@ import java.time.OffsetDateTime;
  */
 public class ChatMessage extends Message<String> implements Serializable
 {
+
+    /**
+     * version of the serialized form, fixed so messages stored before the compact encoding can still be read
+     */
+    private static final long serialVersionUID = -1094316307866785532L;
     /**
      * Constructor of the chat message
      * @param contents of the message
@@ -0,0 +1,114 @@
+package shared;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A lightweight description of a chat which does not contain the message history
+ */
+public class ChatSummary implements Serializable
+{
+    /**
+     * the chat id of the chat
+     */
+    private final long chatId;
+
+    /**
+     * the name used to subscribe to the chat
+     */
+    private final String chatSubscriptionName;
+
+    /**
+     * a list of the participants of the chat
+     */
+    private final List<String> participants;
+
+    /**
+     * the last message send in the chat, null if no messages were send
+     */
+    private final Message lastMessage;
+
+    /**
+     * the sequence number of the last message send in the chat, 0 if no messages were send
+     */
+    private final long lastSequenceNumber;
+
+    /**
+     * the amount of messages the user has not read yet
+     */
+    private final long unreadCount;
+
+    /**
+     * Constructor of the chat summary
+     * @param chatId of the chat
+     * @param chatSubscriptionName used to subscribe to the chat
+     * @param participants names of the participants of the chat
+     * @param lastMessage send in the chat, null if no messages were send
+     * @param lastSequenceNumber of the last message send in the chat
+     * @param unreadCount amount of messages the user has not read yet
+     */
+    public ChatSummary(long chatId, String chatSubscriptionName, List<String> participants, Message lastMessage, long lastSequenceNumber, long unreadCount)
+    {
+        this.chatId = chatId;
+        this.chatSubscriptionName = chatSubscriptionName;
+        this.participants = new ArrayList<>(participants);
+        this.lastMessage = lastMessage;
+        this.lastSequenceNumber = lastSequenceNumber;
+        this.unreadCount = unreadCount;
+    }
+
+    /**
+     * gets the chat id
+     * @return a long value containing the chat id
+     */
+    public long getChatId()
+    {
+        return chatId;
+    }
+
+    /**
+     * gets the subscription name of the chat
+     * @return a string containing the subscription name of the chat
+     */
+    public String getChatSubscriptionName()
+    {
+        return chatSubscriptionName;
+    }
+
+    /**
+     * gets the participants of the chat
+     * @return list of strings containing the names of participants
+     */
+    public List<String> getParticipants()
+    {
+        return participants;
+    }
+
+    /**
+     * gets the last message send in the chat
+     * @return the last message, null if no messages were send
+     */
+    public Message getLastMessage()
+    {
+        return lastMessage;
+    }
+
+    /**
+     * gets the sequence number of the last message send in the chat
+     * @return a long value containing the sequence number, 0 if no messages were send
+     */
+    public long getLastSequenceNumber()
+    {
+        return lastSequenceNumber;
+    }
+
+    /**
+     * gets the amount of messages the user has not read yet
+     * @return a long value containing the amount of unread messages
+     */
+    public long getUnreadCount()
+    {
+        return unreadCount;
+    }
+}
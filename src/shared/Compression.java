@@ -0,0 +1,63 @@
+package shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of payloads send to clients which support it
+ */
+final class Compression
+{
+    /**
+     * Payloads smaller than this amount of bytes are not compressed, the savings would not outweigh the costs
+     */
+    static final int THRESHOLD = 1024;
+
+    /**
+     * Constructor is private, only static methods are used
+     */
+    private Compression()
+    {
+    }
+
+    /**
+     * Compresses bytes, favouring speed over size
+     * @param bytes to be compressed
+     * @return the compressed bytes
+     */
+    static byte[] deflate(byte[] bytes)
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        try (DeflaterOutputStream output = new DeflaterOutputStream(compressed, deflater))
+        {
+            output.write(bytes);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Writing to memory cannot fail", e);
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Gets a stream which decompresses the specified bytes
+     * @param bytes compressed by deflate
+     * @return a stream of the decompressed bytes
+     */
+    static InputStream inflate(byte[] bytes)
+    {
+        return new InflaterInputStream(new ByteArrayInputStream(bytes));
+    }
+}
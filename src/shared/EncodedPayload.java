@@ -0,0 +1,147 @@
+package shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import shared.fontyspublisher.IEncodedPayload;
+
+/**
+ * A value which is serialized once into an immutable byte array, so the same encoding can be send to many receivers
+ * without serializing the value again for each of them. The value is decoded on first use. Large payloads can be
+ * compressed for receivers which support it, the compressed variant is also created once.
+ */
+public class EncodedPayload implements IEncodedPayload
+{
+    /**
+     * the serialized value, never modified after construction
+     */
+    private final byte[] bytes;
+
+    /**
+     * whether the serialized value is compressed
+     */
+    private final boolean compressed;
+
+    /**
+     * the decoded value, null until it is decoded
+     */
+    private transient volatile Object value;
+
+    /**
+     * the variant of this payload which is send to receivers which support compression, null until it is created
+     */
+    private transient volatile EncodedPayload compressedVariant;
+
+    /**
+     * Constructor of the encoded payload
+     * @param bytes the serialized value
+     * @param compressed whether the serialized value is compressed
+     * @param value the value itself, null if it still has to be decoded
+     */
+    private EncodedPayload(byte[] bytes, boolean compressed, Object value)
+    {
+        this.bytes = bytes;
+        this.compressed = compressed;
+        this.value = value;
+    }
+
+    /**
+     * Serializes a value
+     * @param value to be serialized
+     * @return the encoded payload, which also keeps the value so the sender does not decode it
+     * @throws IOException if the value cannot be serialized
+     */
+    public static EncodedPayload encode(Serializable value) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes))
+        {
+            output.writeObject(value);
+        }
+
+        return new EncodedPayload(bytes.toByteArray(), false, value);
+    }
+
+    /**
+     * Gets the value out of a property value which may be an encoded payload
+     * @param propertyValue the value as it was received
+     * @return the decoded value if the property value is an encoded payload, otherwise the property value itself
+     * @throws IOException if the payload cannot be decoded
+     */
+    public static Object unwrap(Object propertyValue) throws IOException
+    {
+        if (propertyValue instanceof EncodedPayload)
+        {
+            return ((EncodedPayload) propertyValue).decode();
+        }
+
+        return propertyValue;
+    }
+
+    /**
+     * Gets the value, it is deserialized the first time
+     * @return the value
+     * @throws IOException if the value cannot be deserialized
+     */
+    public Object decode() throws IOException
+    {
+        Object decoded = value;
+
+        if (decoded == null)
+        {
+            InputStream serialized = compressed ? Compression.inflate(bytes) : new ByteArrayInputStream(bytes);
+
+            try (ObjectInputStream input = new ObjectInputStream(serialized))
+            {
+                decoded = input.readObject();
+            }
+            catch (ClassNotFoundException e)
+            {
+                throw new IOException("Cannot decode the payload", e);
+            }
+
+            value = decoded;
+        }
+
+        return decoded;
+    }
+
+    /**
+     * Gets the variant of this payload for receivers which support compression, the value is only compressed once
+     * no matter how many receivers it is send to
+     * @return a compressed payload, or this payload if it is too small to benefit from compression
+     */
+    public EncodedPayload compressed()
+    {
+        if (compressed || bytes.length < Compression.THRESHOLD)
+        {
+            return this;
+        }
+
+        EncodedPayload variant = compressedVariant;
+
+        if (variant == null)
+        {
+            byte[] deflated = Compression.deflate(bytes);
+            variant = deflated.length < bytes.length ? new EncodedPayload(deflated, true, value) : this;
+            compressedVariant = variant;
+        }
+
+        return variant;
+    }
+
+    /**
+     * gets the size of the encoding
+     * @return an int value containing the amount of bytes of the serialized value
+     */
+    @Override
+    public int size()
+    {
+        return bytes.length;
+    }
+}
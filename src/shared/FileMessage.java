@@ -8,11 +8,21 @@ import java.time.OffsetDateTime;
  */
 public class FileMessage extends Message<byte[]> implements Serializable
 {
+
+    /**
+     * version of the serialized form, fixed so messages stored before the compact encoding can still be read
+     */
+    private static final long serialVersionUID = 4874554809245728756L;
     /**
      * name of the file
      */
     private final String filename;
 
+    /**
+     * name under which the contents are stored in the file storage, null if the contents are part of this message
+     */
+    private final String storedName;
+
     /**
      * constructor of the file message object
      * @param contents of the file
@@ -23,6 +33,7 @@ public class FileMessage extends Message<byte[]> implements Serializable
     {
         super(contents, author);
         this.filename = filename;
+        this.storedName = null;
     }
 
     /**
@@ -36,6 +47,40 @@ public class FileMessage extends Message<byte[]> implements Serializable
     {
         super(timestamp, contents, author);
         this.filename = filename;
+        this.storedName = null;
+    }
+
+    /**
+     * constructor of a file message which refers to contents in the file storage
+     * @param timestamp when the message was created
+     * @param filename of the file
+     * @param author of the message
+     * @param storedName under which the contents are stored
+     */
+    FileMessage(OffsetDateTime timestamp, String filename, String author, String storedName)
+    {
+        super(timestamp, null, author);
+        this.filename = filename;
+        this.storedName = storedName;
+    }
+
+    /**
+     * Creates a copy of this message without its contents, which refers to the contents in the file storage instead
+     * @param storedName under which the contents are stored
+     * @return a file message without contents
+     */
+    public FileMessage withoutContents(String storedName)
+    {
+        return new FileMessage(getTimestamp(), filename, getAuthor(), storedName);
+    }
+
+    /**
+     * gets the name under which the contents are stored in the file storage
+     * @return a string containing the stored name, null if the contents are part of this message
+     */
+    public String getStoredName()
+    {
+        return storedName;
     }
 
     /**
@@ -9,6 +9,11 @@ import java.time.OffsetDateTime;
  */
 public abstract class Message<V> implements Serializable
 {
+
+    /**
+     * version of the serialized form, fixed so messages stored before the compact encoding can still be read
+     */
+    private static final long serialVersionUID = 2250086708134545905L;
     /**
      * author of the message
      */
@@ -75,6 +80,15 @@ public abstract class Message<V> implements Serializable
         return timestamp;
     }
 
+    /**
+     * Replaces this message by its compact encoding when it is serialized
+     * @return the object which is serialized instead of this message
+     */
+    Object writeReplace()
+    {
+        return new SerializedMessage(this);
+    }
+
     @Override
     public String toString()
     {
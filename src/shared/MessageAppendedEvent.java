@@ -0,0 +1,64 @@
+package shared;
+
+import java.io.Serializable;
+
+/**
+ * Event send to the participants of a chat when a single message was appended to it
+ */
+public class MessageAppendedEvent implements Serializable
+{
+    /**
+     * the id of the chat the message was appended to
+     */
+    private final long chatId;
+
+    /**
+     * the sequence number of the message within the chat, starting at 1 and increasing by one per message
+     */
+    private final long sequenceNumber;
+
+    /**
+     * the message which was appended
+     */
+    private final Message message;
+
+    /**
+     * Constructor of the message appended event
+     * @param chatId of the chat the message was appended to
+     * @param sequenceNumber of the message within the chat
+     * @param message which was appended
+     */
+    public MessageAppendedEvent(long chatId, long sequenceNumber, Message message)
+    {
+        this.chatId = chatId;
+        this.sequenceNumber = sequenceNumber;
+        this.message = message;
+    }
+
+    /**
+     * gets the chat id
+     * @return a long value containing the id of the chat the message was appended to
+     */
+    public long getChatId()
+    {
+        return chatId;
+    }
+
+    /**
+     * gets the sequence number of the message
+     * @return a long value containing the sequence number of the message within the chat
+     */
+    public long getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    /**
+     * gets the message which was appended
+     * @return the appended message
+     */
+    public Message getMessage()
+    {
+        return message;
+    }
+}
@@ -0,0 +1,424 @@
+package shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of messages. Timestamps are written as epoch milliseconds relative to the previous message
+ * and a zone offset in seconds, numbers and lengths as variable length integers and strings which were already written
+ * by the same codec as a back-reference to the first occurrence. A codec keeps its string table for its whole stream,
+ * so a batch of messages should be written and read by a single codec.
+ */
+public final class MessageCodec
+{
+    /**
+     * The longest string, byte array or list of messages which is written or read, the same as the largest frame of
+     * the framed protocol of the administration
+     */
+    public static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Tag of an encoded chat message
+     */
+    private static final byte TAG_CHAT_MESSAGE = 1;
+
+    /**
+     * Tag of an encoded file message
+     */
+    private static final byte TAG_FILE_MESSAGE = 2;
+
+    /**
+     * Reference written in place of a null string
+     */
+    private static final int REFERENCE_NULL = 0;
+
+    /**
+     * Reference written in front of a string which is not in the table yet, references above it point into the table
+     */
+    private static final int REFERENCE_NEW = 1;
+
+    /**
+     * Index in the string table of every string written by this codec
+     */
+    private final Map<String, Integer> writtenStrings;
+
+    /**
+     * Every string read by this codec, in the order they were read
+     */
+    private final List<String> readStrings;
+
+    /**
+     * Epoch milliseconds of the previous timestamp written or read by this codec
+     */
+    private long previousMillis;
+
+    /**
+     * Constructor of the message codec with an empty string table
+     */
+    public MessageCodec()
+    {
+        this.writtenStrings = new HashMap<>();
+        this.readStrings = new ArrayList<>();
+    }
+
+    /**
+     * Encodes a single message
+     * @param message to be encoded
+     * @return the encoded message
+     * @throws IOException if the message type is not supported
+     */
+    public static byte[] encode(Message message) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(bytes))
+        {
+            new MessageCodec().write(output, message);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a single message which was encoded by encode
+     * @param bytes of the encoded message
+     * @return the decoded message
+     * @throws IOException if the bytes do not contain a valid message
+     */
+    public static Message decode(byte[] bytes) throws IOException
+    {
+        return new MessageCodec().read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Writes a list of messages, strings are shared by all messages in the list
+     * @param output to be written to
+     * @param messages to be written
+     * @throws IOException if the output cannot be written or a message type is not supported
+     */
+    public static void writeMessages(DataOutput output, List<Message> messages) throws IOException
+    {
+        if (messages.size() > MAX_LENGTH)
+        {
+            throw new IOException("Too many messages " + messages.size());
+        }
+
+        MessageCodec codec = new MessageCodec();
+        writeVarLong(output, messages.size());
+
+        for (Message message : messages)
+        {
+            codec.write(output, message);
+        }
+    }
+
+    /**
+     * Reads a list of messages which was written by writeMessages
+     * @param input to be read from
+     * @return the messages in the order they were written
+     * @throws IOException if the input does not contain valid messages
+     */
+    public static List<Message> readMessages(DataInput input) throws IOException
+    {
+        MessageCodec codec = new MessageCodec();
+        int size = readLength(input);
+        List<Message> messages = new ArrayList<>(Math.min(size, ChatHistoryPage.MAX_PAGE_SIZE));
+
+        for (int i = 0; i < size; i++)
+        {
+            messages.add(codec.read(input));
+        }
+
+        return messages;
+    }
+
+    /**
+     * Writes a message
+     * @param output to be written to
+     * @param message to be written
+     * @throws IOException if the output cannot be written or the message type is not supported
+     */
+    public void write(DataOutput output, Message message) throws IOException
+    {
+        if (message instanceof ChatMessage)
+        {
+            output.writeByte(TAG_CHAT_MESSAGE);
+        }
+        else if (message instanceof FileMessage)
+        {
+            output.writeByte(TAG_FILE_MESSAGE);
+        }
+        else
+        {
+            throw new IOException("Unsupported message type " + message.getClass().getName());
+        }
+
+        OffsetDateTime timestamp = message.getTimestamp();
+        long millis = timestamp.toInstant().toEpochMilli();
+        writeVarLong(output, zigZag(millis - previousMillis));
+        writeVarLong(output, zigZag(timestamp.getOffset().getTotalSeconds()));
+        previousMillis = millis;
+
+        writeString(output, message.getAuthor());
+
+        if (message instanceof ChatMessage)
+        {
+            writeString(output, ((ChatMessage) message).getContents());
+        }
+        else
+        {
+            FileMessage fileMessage = (FileMessage) message;
+            writeString(output, fileMessage.getFilename());
+            writeString(output, fileMessage.getStoredName());
+            writeBytes(output, fileMessage.getContents());
+        }
+    }
+
+    /**
+     * Reads a message
+     * @param input to be read from
+     * @return the message
+     * @throws IOException if the input does not contain a valid message
+     */
+    public Message read(DataInput input) throws IOException
+    {
+        byte tag = input.readByte();
+
+        long millis = previousMillis + unZigZag(readVarLong(input));
+        int offsetSeconds = (int) unZigZag(readVarLong(input));
+        previousMillis = millis;
+
+        OffsetDateTime timestamp;
+
+        try
+        {
+            timestamp = OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.ofTotalSeconds(offsetSeconds));
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Invalid timestamp", e);
+        }
+
+        String author = readString(input);
+
+        switch (tag)
+        {
+            case TAG_CHAT_MESSAGE:
+                return new ChatMessage(timestamp, readString(input), author);
+            case TAG_FILE_MESSAGE:
+                String filename = readString(input);
+                String storedName = readString(input);
+                byte[] contents = readBytes(input);
+
+                if (storedName != null)
+                {
+                    return new FileMessage(timestamp, filename, author, storedName);
+                }
+
+                return new FileMessage(timestamp, contents, filename, author);
+            default:
+                throw new IOException("Unknown message tag " + tag);
+        }
+    }
+
+    /**
+     * Writes a string, or a reference to it if this codec already wrote it
+     * @param output to be written to
+     * @param value to be written, may be null
+     * @throws IOException if the output cannot be written
+     */
+    private void writeString(DataOutput output, String value) throws IOException
+    {
+        if (value == null)
+        {
+            writeVarLong(output, REFERENCE_NULL);
+            return;
+        }
+
+        Integer index = writtenStrings.get(value);
+
+        if (index != null)
+        {
+            writeVarLong(output, REFERENCE_NEW + 1 + index);
+            return;
+        }
+
+        writtenStrings.put(value, writtenStrings.size());
+        writeVarLong(output, REFERENCE_NEW);
+        writeBytes(output, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a string written by writeString
+     * @param input to be read from
+     * @return the string, may be null
+     * @throws IOException if the input does not contain a valid string
+     */
+    private String readString(DataInput input) throws IOException
+    {
+        long reference = readVarLong(input);
+
+        if (reference == REFERENCE_NULL)
+        {
+            return null;
+        }
+
+        if (reference == REFERENCE_NEW)
+        {
+            byte[] bytes = readBytes(input);
+
+            if (bytes == null)
+            {
+                throw new IOException("Missing string");
+            }
+
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            readStrings.add(value);
+            return value;
+        }
+
+        long index = reference - REFERENCE_NEW - 1;
+
+        if (index >= readStrings.size())
+        {
+            throw new IOException("Invalid string reference " + reference);
+        }
+
+        return readStrings.get((int) index);
+    }
+
+    /**
+     * Writes a byte array preceded by its length + 1, 0 is written for null
+     * @param output to be written to
+     * @param bytes to be written, may be null
+     * @throws IOException if the output cannot be written or the array is longer than MAX_LENGTH
+     */
+    private static void writeBytes(DataOutput output, byte[] bytes) throws IOException
+    {
+        if (bytes == null)
+        {
+            writeVarLong(output, 0);
+            return;
+        }
+
+        if (bytes.length > MAX_LENGTH)
+        {
+            throw new IOException("Too many bytes " + bytes.length);
+        }
+
+        writeVarLong(output, bytes.length + 1L);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a byte array written by writeBytes
+     * @param input to be read from
+     * @return the bytes, may be null
+     * @throws IOException if the input does not contain a valid byte array
+     */
+    private static byte[] readBytes(DataInput input) throws IOException
+    {
+        int length = readLength(input);
+
+        if (length == 0)
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length - 1];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a variable length integer which is used as a length or size, it is checked before anything is allocated
+     * @param input to be read from
+     * @return the value, at most MAX_LENGTH + 1 so a byte array length + 1 fits
+     * @throws IOException if the value is negative or larger than MAX_LENGTH + 1
+     */
+    private static int readLength(DataInput input) throws IOException
+    {
+        long length = readVarLong(input);
+
+        if (length < 0 || length > MAX_LENGTH + 1L)
+        {
+            throw new IOException("Invalid length " + length);
+        }
+
+        return (int) length;
+    }
+
+    /**
+     * Writes an unsigned variable length integer, 7 bits per byte with the highest bit set on all but the last byte
+     * @param output to be written to
+     * @param value to be written, interpreted as unsigned
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeVarLong(DataOutput output, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        output.writeByte((int) value);
+    }
+
+    /**
+     * Reads an unsigned variable length integer written by writeVarLong
+     * @param input to be read from
+     * @return the value
+     * @throws IOException if the input does not contain a valid integer
+     */
+    private static long readVarLong(DataInput input) throws IOException
+    {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+
+        throw new IOException("Variable length integer is too long");
+    }
+
+    /**
+     * Maps a signed value to an unsigned one, so small negative values are written in few bytes as well
+     * @param value to be mapped
+     * @return the mapped value
+     */
+    private static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses zigZag
+     * @param value to be mapped
+     * @return the original value
+     */
+    private static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -1,7 +1,8 @@
 package shared;
 
-import server.logic.User;
-
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,9 +18,9 @@ public class SerializableChat implements Serializable
     private final List<String> participants;
 
     /**
-     * a list of all messages send
+     * a list of all messages send, serialized as one batch by the message codec
      */
-    private final List<Message> messages;
+    private transient List<Message> messages;
 
     /**
      * the chat id of the chat
@@ -31,14 +32,47 @@ public class SerializableChat implements Serializable
      */
     private final String chatSubscriptionName;
 
-    public SerializableChat(long chatId, List<User> participants, List<Message> messages, String chatSubscriptionName)
+    /**
+     * the sequence number of the last message in this chat, 0 if no messages were send
+     */
+    private final long lastSequenceNumber;
+
+    public SerializableChat(long chatId, List<String> participants, List<Message> messages, String chatSubscriptionName, long lastSequenceNumber)
     {
         this.messages = messages;
         this.chatId = chatId;
         this.chatSubscriptionName = chatSubscriptionName;
+        this.lastSequenceNumber = lastSequenceNumber;
 
-        this.participants = new ArrayList<>();
-        participants.forEach(user -> this.participants.add(user.getUsername()));
+        this.participants = new ArrayList<>(participants);
+    }
+
+    /**
+     * Constructor used to create a chat out of a summary, no messages are loaded yet
+     * @param summary of the chat
+     */
+    public SerializableChat(ChatSummary summary)
+    {
+        this.participants = new ArrayList<>(summary.getParticipants());
+        this.chatId = summary.getChatId();
+        this.chatSubscriptionName = summary.getChatSubscriptionName();
+        this.messages = new ArrayList<>();
+        this.lastSequenceNumber = summary.getLastSequenceNumber();
+    }
+
+    /**
+     * Constructor used to create a copy of an existing chat with a different set of messages
+     * @param chat to be copied
+     * @param messages of the copy
+     * @param lastSequenceNumber of the last message in the copy
+     */
+    private SerializableChat(SerializableChat chat, List<Message> messages, long lastSequenceNumber)
+    {
+        this.participants = chat.participants;
+        this.chatId = chat.chatId;
+        this.chatSubscriptionName = chat.chatSubscriptionName;
+        this.messages = messages;
+        this.lastSequenceNumber = lastSequenceNumber;
     }
 
     /**
@@ -59,6 +93,71 @@ public class SerializableChat implements Serializable
         return messages;
     }
 
+    /**
+     * gets the sequence number of the last message in this chat
+     * @return a long value containing the sequence number, 0 if no messages were send
+     */
+    public long getLastSequenceNumber()
+    {
+        return lastSequenceNumber;
+    }
+
+    /**
+     * gets the sequence number of the oldest loaded message in this chat
+     * @return a long value containing the sequence number, the last sequence number + 1 if no messages are loaded
+     */
+    public long getFirstSequenceNumber()
+    {
+        return lastSequenceNumber - messages.size() + 1;
+    }
+
+    /**
+     * checks if the chat has older messages which are not loaded yet
+     * @return true if older messages can be requested, otherwise false
+     */
+    public boolean hasOlderMessages()
+    {
+        return getFirstSequenceNumber() > 1;
+    }
+
+    /**
+     * Creates a copy of this chat with the messages of the specified page prepended to it
+     * @param page which directly precedes the oldest loaded message
+     * @return the updated copy, or null if the page does not directly precede the oldest loaded message
+     */
+    public SerializableChat withOlderMessages(ChatHistoryPage page)
+    {
+        if (page.getChatId() != chatId || page.getLastSequenceNumber() != getFirstSequenceNumber() - 1)
+        {
+            return null;
+        }
+
+        List<Message> prepended = new ArrayList<>(page.getMessages().size() + messages.size());
+        prepended.addAll(page.getMessages());
+        prepended.addAll(messages);
+
+        return new SerializableChat(this, prepended, lastSequenceNumber);
+    }
+
+    /**
+     * Creates a copy of this chat with the message of the specified event appended to it
+     * @param event which contains the appended message
+     * @return the updated copy, or null if the event does not directly follow the last known message
+     */
+    public SerializableChat withAppendedMessage(MessageAppendedEvent event)
+    {
+        if (event.getChatId() != chatId || event.getSequenceNumber() != lastSequenceNumber + 1)
+        {
+            return null;
+        }
+
+        List<Message> appended = new ArrayList<>(messages.size() + 1);
+        appended.addAll(messages);
+        appended.add(event.getMessage());
+
+        return new SerializableChat(this, appended, event.getSequenceNumber());
+    }
+
     /**
      * gets the chat id
      * @return a long value containing the chat id
@@ -103,4 +202,27 @@ public class SerializableChat implements Serializable
 
         return returnable.toString();
     }
+
+    /**
+     * Writes the chat, the messages share one string table so every author is only written once
+     * @param out to be written to
+     * @throws IOException if the chat cannot be written
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        MessageCodec.writeMessages(out, messages);
+    }
+
+    /**
+     * Reads a chat written by writeObject
+     * @param in to be read from
+     * @throws IOException if the chat cannot be read
+     * @throws ClassNotFoundException if a class of the chat is unknown
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        messages = MessageCodec.readMessages(in);
+    }
 }
@@ -0,0 +1,60 @@
+package shared;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Serialized form of a single message, written with the compact encoding of the message codec instead of the default
+ * serialization of the message and its timestamp
+ */
+final class SerializedMessage implements Externalizable
+{
+    /**
+     * version of the serialized form
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * the message which is serialized
+     */
+    private Message message;
+
+    /**
+     * Constructor used by the serialization mechanism when the message is read
+     */
+    public SerializedMessage()
+    {
+    }
+
+    /**
+     * Constructor of the serialized form of a message
+     * @param message to be serialized
+     */
+    SerializedMessage(Message message)
+    {
+        this.message = message;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        new MessageCodec().write(out, message);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException
+    {
+        message = new MessageCodec().read(in);
+    }
+
+    /**
+     * Replaces this serialized form by the message it contains once it is read
+     * @return the message
+     */
+    private Object readResolve()
+    {
+        return message;
+    }
+}
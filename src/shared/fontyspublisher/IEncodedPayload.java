@@ -0,0 +1,17 @@
+package shared.fontyspublisher;
+
+import java.io.Serializable;
+
+/**
+ * IEncodedPayload. Interface to a property value which is already encoded,
+ * so the publisher knows how many bytes are sent when it is delivered.
+ */
+public interface IEncodedPayload extends Serializable {
+
+    /**
+     * Obtain the size of the encoded value.
+     *
+     * @return number of bytes of the encoding
+     */
+    int size();
+}
@@ -0,0 +1,24 @@
+package shared.fontyspublisher;
+
+import java.beans.PropertyChangeEvent;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * IRemoteBatchPropertyListener. Interface to remote property listener which
+ * accepts several events in a single remote method invocation. A publisher
+ * delivers the pending events of such a listener through propertyChanges(),
+ * other remote listeners keep receiving one propertyChange() per event.
+ */
+public interface IRemoteBatchPropertyListener extends IRemotePropertyListener {
+
+    /**
+     * Inform listener about changes of properties in the domain. The events
+     * are in the order in which they were informed and should be handled as
+     * if propertyChange() was invoked for each of them.
+     *
+     * @param events list of PropertyChangeEvent @see java.beans.PropertyChangeEvent
+     * @throws RemoteException if something went wrong in the connection
+     */
+    void propertyChanges(List<PropertyChangeEvent> events) throws RemoteException;
+}
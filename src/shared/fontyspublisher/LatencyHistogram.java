@@ -0,0 +1,67 @@
+package shared.fontyspublisher;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram. Lock-free histogram of latencies with buckets of powers of
+ * two microseconds, used to estimate latency percentiles.
+ */
+class LatencyHistogram {
+
+    /**
+     * Number of buckets, the last bucket holds everything of about 36 minutes
+     * and longer.
+     */
+    private static final int BUCKET_COUNT = 32;
+
+    /**
+     * Number of recorded latencies per bucket. Bucket i holds latencies below
+     * 2^i microseconds which do not fit in a lower bucket.
+     */
+    private final AtomicLongArray buckets;
+
+    /**
+     * Constructor for LatencyHistogram.
+     */
+    LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos latency in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+    }
+
+    /**
+     * Estimate a percentile of the recorded latencies. The upper bound of the
+     * bucket which contains the percentile is returned.
+     *
+     * @param percentile between 0 and 100
+     * @return latency in milliseconds, 0 if nothing was recorded
+     */
+    double percentileMillis(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return (1L << i) / 1000.0;
+            }
+        }
+        return (1L << (BUCKET_COUNT - 1)) / 1000.0;
+    }
+}
@@ -0,0 +1,133 @@
+package shared.fontyspublisher;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * ListenerMetrics. Snapshot of the delivery statistics of one listener of a
+ * publisher, exposed through JMX.
+ */
+public class ListenerMetrics {
+
+    /**
+     * Description of the listener.
+     */
+    private final String listener;
+
+    /**
+     * Number of events waiting to be delivered.
+     */
+    private final int queuedEvents;
+
+    /**
+     * Number of events delivered.
+     */
+    private final long deliveredEvents;
+
+    /**
+     * Number of events dropped because the queue was full.
+     */
+    private final long droppedEvents;
+
+    /**
+     * Number of failed deliveries.
+     */
+    private final long failedDeliveries;
+
+    /**
+     * Number of encoded bytes delivered, values which are not wrapped in an
+     * IEncodedPayload are not counted.
+     */
+    private final long bytesSent;
+
+    /**
+     * Median time between informing and delivering an event.
+     */
+    private final double latencyMillisP50;
+
+    /**
+     * 99th percentile of the time between informing and delivering an event.
+     */
+    private final double latencyMillisP99;
+
+    /**
+     * Constructor for ListenerMetrics.
+     *
+     * @param listener description of the listener
+     * @param queuedEvents number of events waiting to be delivered
+     * @param deliveredEvents number of events delivered
+     * @param droppedEvents number of events dropped because the queue was full
+     * @param failedDeliveries number of failed deliveries
+     * @param bytesSent number of encoded bytes delivered
+     * @param latencyMillisP50 median delivery latency in milliseconds
+     * @param latencyMillisP99 99th percentile delivery latency in milliseconds
+     */
+    @ConstructorProperties({"listener", "queuedEvents", "deliveredEvents", "droppedEvents",
+            "failedDeliveries", "bytesSent", "latencyMillisP50", "latencyMillisP99"})
+    public ListenerMetrics(String listener, int queuedEvents, long deliveredEvents, long droppedEvents,
+            long failedDeliveries, long bytesSent, double latencyMillisP50, double latencyMillisP99) {
+        this.listener = listener;
+        this.queuedEvents = queuedEvents;
+        this.deliveredEvents = deliveredEvents;
+        this.droppedEvents = droppedEvents;
+        this.failedDeliveries = failedDeliveries;
+        this.bytesSent = bytesSent;
+        this.latencyMillisP50 = latencyMillisP50;
+        this.latencyMillisP99 = latencyMillisP99;
+    }
+
+    /**
+     * @return description of the listener
+     */
+    public String getListener() {
+        return listener;
+    }
+
+    /**
+     * @return number of events waiting to be delivered
+     */
+    public int getQueuedEvents() {
+        return queuedEvents;
+    }
+
+    /**
+     * @return number of events delivered
+     */
+    public long getDeliveredEvents() {
+        return deliveredEvents;
+    }
+
+    /**
+     * @return number of events dropped because the queue was full
+     */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    /**
+     * @return number of failed deliveries
+     */
+    public long getFailedDeliveries() {
+        return failedDeliveries;
+    }
+
+    /**
+     * @return number of encoded bytes delivered
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return median delivery latency in milliseconds
+     */
+    public double getLatencyMillisP50() {
+        return latencyMillisP50;
+    }
+
+    /**
+     * @return 99th percentile delivery latency in milliseconds
+     */
+    public double getLatencyMillisP99() {
+        return latencyMillisP99;
+    }
+}
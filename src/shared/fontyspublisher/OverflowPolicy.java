@@ -0,0 +1,27 @@
+package shared.fontyspublisher;
+
+/**
+ * OverflowPolicy. Determines what a publisher does when an event is informed
+ * to a listener whose delivery queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The oldest pending event of the lowest priority of the listener is
+     * dropped.
+     */
+    DROP_OLDEST,
+
+    /**
+     * A pending event of the same property is replaced by the new event. In
+     * case no event of the same property is pending, the oldest pending event
+     * of the lowest priority is dropped.
+     */
+    COALESCE,
+
+    /**
+     * The listener is unsubscribed from all properties and its pending events
+     * are discarded.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,27 @@
+package shared.fontyspublisher;
+
+/**
+ * Priority. Determines in which lane the events of a property wait for
+ * delivery. Pending events of a higher priority are delivered to a listener
+ * before those of a lower priority, events of one property are always
+ * delivered in the order they were informed.
+ */
+public enum Priority {
+
+    /**
+     * Events a listener needs before it can handle other events, e.g.
+     * registration of a new property.
+     */
+    CONTROL,
+
+    /**
+     * Regular events, the priority of a property unless specified otherwise.
+     */
+    NORMAL,
+
+    /**
+     * Events which may wait until all other events are delivered. When a
+     * queue is full, its pending events of this priority are dropped first.
+     */
+    BULK
+}
@@ -0,0 +1,22 @@
+package shared.fontyspublisher;
+
+/**
+ * PropertyKind. Determines whether the events of a property describe changes
+ * which all matter, or the complete state of the property of which only the
+ * newest matters.
+ */
+public enum PropertyKind {
+
+    /**
+     * Every event is delivered, e.g. messages appended to a chat.
+     */
+    STREAM,
+
+    /**
+     * Every event carries the complete state of the property. An event which
+     * is still pending for a listener is replaced by a newer event of the same
+     * property, so a listener which falls behind only receives the newest
+     * state.
+     */
+    STATE
+}
@@ -6,16 +6,40 @@
 package shared.fontyspublisher;
 
 import java.beans.PropertyChangeEvent;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.rmi.RemoteException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 /**
  * Publisher. Properties may be registered and unregistered by the domain. Local
@@ -26,23 +50,125 @@ import java.util.logging.Logger;
  * invocation of propertyChange(). Listeners subscribed to the null-String are
  * by definition subscribed to all properties. Note that (remote) method
  * invocation of propertyChange() is done asynchronously.
+ * Every listener has its own bounded queue of pending events, which is
+ * drained in order by at most one thread of the pool at a time. A slow
+ * listener therefore only delays its own events. What happens when a queue
+ * is full is determined by the overflow policy of the publisher. Pending
+ * events of a batch listener are delivered in one remote method invocation.
+ * Every property has a priority, pending events of a higher priority are
+ * delivered to a listener before those of a lower priority. A property may
+ * carry complete state instead of a stream of changes, a pending event of
+ * such a property is replaced by a newer one.
+ * Every remote invocation runs on a callback thread, a virtual thread when
+ * the Java runtime supports them and otherwise a thread of a bounded pool, so
+ * it never holds a thread of the pool. A listener receives its next
+ * invocation only after the previous one returned, so its events arrive in
+ * order. Every invocation has a deadline, a remote listener of which a number
+ * of invocations in a row miss their deadline, or of which one invocation
+ * runs for that many deadlines, is unsubscribed without waiting for the
+ * connection to time out.
+ * Every registered property keeps its most recent events with their sequence
+ * numbers, so a listener which lost its connection can resume and only
+ * receive the events it missed.
+ * Delivery statistics per listener and per property can be exposed through
+ * JMX by registering the metrics of the publisher under a name.
  *
  * @author Frank Peeters, Nico Kuijpers
  */
-class Publisher {
+public class Publisher {
 
     /**
-     * Local and remote property listeners subscribed to a property.
+     * Default number of threads in the shared thread pool, which is used when
+     * virtual threads are not available. May be overridden through system
+     * property fontyspublisher.poolsize.
      */
-    // private final HashMap<String, Set<IPropertyListener>> propertyListeners;
-    private final Map<String, List<IPropertyListener>> propertyListeners;
+    public static final int DEFAULT_POOL_SIZE = 10;
 
     /**
-     * String of all registered properties. This string is returned in a
-     * RuntimeException in case a listener tries to subscribe to an unknown
-     * property (see also method checkInBehalfOfProgrammer).
+     * Default maximum number of remote invocations running at the same time,
+     * which is used when virtual threads are not available. May be overridden
+     * through system property fontyspublisher.callbackpoolsize.
      */
-    private String propertiesString;
+    public static final int DEFAULT_CALLBACK_POOL_SIZE = 64;
+
+    /**
+     * Default deadline in milliseconds of a remote invocation, may be
+     * overridden through system property fontyspublisher.callbackdeadline.
+     */
+    public static final long DEFAULT_CALLBACK_DEADLINE = 5000;
+
+    /**
+     * Default number of invocations in a row of a remote listener which may
+     * miss their deadline before it is unsubscribed, may be overridden
+     * through system property fontyspublisher.maxmisseddeadlines. Every
+     * invocation counts as at most one miss, an invocation which runs for
+     * this many deadlines unsubscribes the listener as well.
+     */
+    public static final int DEFAULT_MAX_MISSED_DEADLINES = 3;
+
+    /**
+     * Default number of recent events kept per property, may be overridden
+     * through system property fontyspublisher.historysize. A property of
+     * kind STATE keeps only its newest event.
+     */
+    public static final int DEFAULT_HISTORY_SIZE = 256;
+
+    /**
+     * Default maximum number of pending events per listener.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Maximum number of events delivered to a batch listener in a single
+     * remote method invocation.
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * Which values the byte counters of the metrics include, part of the
+     * descriptions of their JMX attributes.
+     */
+    private static final String COUNTED_BYTES = "only values wrapped in an "
+            + "IEncodedPayload are counted, plain values such as most states are not";
+
+    /**
+     * Maximum number of events delivered to a listener before its queue
+     * yields the thread to the queues of other listeners.
+     */
+    private static final int MAX_EVENTS_PER_RUN = 64;
+
+    /**
+     * Local and remote property listeners subscribed to a property. Only
+     * accessed while holding the lock of this publisher, every change is
+     * followed by a rebuild of the registry snapshot.
+     */
+    private final Map<String, Set<IPropertyListener>> propertyListeners;
+
+    /**
+     * Delivery queue of every subscribed listener. Only accessed while
+     * holding the lock of this publisher.
+     */
+    private final Map<IPropertyListener, ListenerQueue> listenerQueues;
+
+    /**
+     * Priority, kind, sequence numbers and recent events of every registered
+     * property except null. Only accessed while holding the lock of this
+     * publisher.
+     */
+    private final Map<String, Topic> topics;
+
+    /**
+     * Immutable snapshot of the registered properties and the queues to be
+     * informed of each of them. Method inform() only reads this snapshot and
+     * the lock of the informed property, which serializes the numbering of
+     * its events, so informing does not copy any collection.
+     */
+    private volatile Registry registry;
+
+    /**
+     * Number of recent events kept per property of kind STREAM.
+     */
+    private final int historySize;
 
     /**
      * Thread pool to inform listeners concurrently. The advantage of using a
@@ -51,6 +177,39 @@ class Publisher {
      */
     private final ExecutorService pool;
 
+    /**
+     * Maximum number of pending events per listener.
+     */
+    private final int queueCapacity;
+
+    /**
+     * What happens when an event is informed to a listener with a full queue.
+     */
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Deadline in milliseconds of a remote invocation.
+     */
+    private final long callbackDeadline;
+
+    /**
+     * Number of invocations in a row of a remote listener which may miss
+     * their deadline.
+     */
+    private final int maxMissedDeadlines;
+
+    /**
+     * Statistics of all deliveries, including those to listeners which are
+     * no longer subscribed.
+     */
+    private final Metrics metrics;
+
+    /**
+     * Name under which the metrics are registered through JMX, null if they
+     * are not registered. Guarded by the lock of this publisher.
+     */
+    private ObjectName metricsName;
+
     /**
      * Default no-arg constructor for Publisher.
      */
@@ -60,32 +219,53 @@ class Publisher {
 
     /**
      * Constructor for Publisher. Property listeners may subscribe to given
-     * properties.
+     * properties. Listeners are informed by the executor shared by all
+     * publishers created this way, which runs every delivery on its own
+     * virtual thread when the Java runtime supports them.
      *
      * @param properties used to start the publisher
      */
     public Publisher(String[] properties) {
-        
-        // Ensure that hash map is synchronized
-        propertyListeners = Collections.synchronizedMap(new HashMap<>());
+        this(properties, SharedPool.POOL, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Constructor for Publisher. Property listeners may subscribe to given
+     * properties. The given thread pool may be shared with other publishers,
+     * it is not shut down by this publisher.
+     *
+     * @param properties used to start the publisher
+     * @param pool thread pool used to inform listeners
+     * @param queueCapacity maximum number of pending events per listener
+     * @param overflowPolicy what happens when the queue of a listener is full
+     */
+    public Publisher(String[] properties, ExecutorService pool, int queueCapacity, OverflowPolicy overflowPolicy) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queue capacity must be at least 1");
+        }
+
+        this.pool = pool;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        callbackDeadline = Long.getLong("fontyspublisher.callbackdeadline", DEFAULT_CALLBACK_DEADLINE);
+        maxMissedDeadlines = Integer.getInteger("fontyspublisher.maxmisseddeadlines", DEFAULT_MAX_MISSED_DEADLINES);
+        propertyListeners = new LinkedHashMap<>();
+        listenerQueues = new HashMap<>();
+        topics = new HashMap<>();
+        historySize = Math.max(1, Integer.getInteger("fontyspublisher.historysize", DEFAULT_HISTORY_SIZE));
+        metrics = new Metrics();
 
         // Register null-String as property
-        propertyListeners.put(null, Collections.synchronizedList(new ArrayList<>()));
-        
+        propertyListeners.put(null, new LinkedHashSet<>());
+
         // Register remaining properties
         for (String s : properties) {
-            propertyListeners.put(s, Collections.synchronizedList(new ArrayList<>()));
+            propertyListeners.put(s, new LinkedHashSet<>());
+            topics.put(s, new Topic(s, Priority.NORMAL, PropertyKind.STREAM));
         }
 
-        // Initialize string of all registered properties
-        setPropertiesString();
-
-        // Initialize thread pool
-        /*
-      Number of threads in thread pool.
-     */
-        int nrThreads = 10;
-        pool = Executors.newFixedThreadPool(nrThreads);
+        // Initialize snapshot of the registry
+        rebuildRegistry();
     }
 
     /**
@@ -117,13 +297,16 @@ class Publisher {
     }
 
     // Subscribe local or remote property listener
-    private void subscribePropertyListener(IPropertyListener listener, String property) {
+    private synchronized void subscribePropertyListener(IPropertyListener listener, String property) {
 
         // Check whether property is registered
         checkInBehalfOfProgrammer(property);
 
         // Subscribe property listener to property
-        propertyListeners.get(property).add(listener);
+        if (propertyListeners.get(property).add(listener)) {
+            listenerQueues.computeIfAbsent(listener, ListenerQueue::new);
+            rebuildRegistry();
+        }
     }
 
     /**
@@ -151,28 +334,23 @@ class Publisher {
     }    
         
     // Unsubscribe local or remote property listener
-    private void unsubscribeListener(IPropertyListener listener, String property) {
+    private synchronized void unsubscribeListener(IPropertyListener listener, String property) {
         if (property != null) {
             // Unsubscribe property listener from given property
-            List<IPropertyListener> listeners = propertyListeners.get(property);
+            Set<IPropertyListener> listeners = propertyListeners.get(property);
             if (listeners != null) {
                 listeners.remove(listener);
                 propertyListeners.get(null).remove(listener);
             }
         } else {
             // Unsubscribe property listener from all properties
-            /*
-             * REMARK BY NICO KUIJPERS.
-             * Set<String> keyset = propertyListeners.keySet();
-             * may cause a java.util.ConcurrentModificationException
-             * when the key set changes. Therefore, the key set is copied
-             * to an ArrayList.
-             */
-            List<String> keyset = new ArrayList<>(propertyListeners.keySet());
-            for (String key : keyset) {
-                propertyListeners.get(key).remove(listener);
+            for (Set<IPropertyListener> listeners : propertyListeners.values()) {
+                listeners.remove(listener);
             }
         }
+
+        discardUnsubscribedQueues();
+        rebuildRegistry();
     }
 
     /**
@@ -187,48 +365,60 @@ class Publisher {
      * @param newValue new value of property at domain
      */
     public void inform(String property, Object oldValue, Object newValue) {
-        // Check whether property is registered
-        checkInBehalfOfProgrammer(property);
-
-        // Determine property listeners to be informed
-        List<IPropertyListener> listenersToBeInformed;
-        listenersToBeInformed = new ArrayList<>();
-
         if (property != null) {
-            // Listeners that are subscribed to given property
-            listenersToBeInformed.addAll(propertyListeners.get(property));
-            // Listeners that are subscribed to null-String
-            listenersToBeInformed.addAll(propertyListeners.get(null));
-        } else {
-            // Inform all listeners, including listeners that are subscribed
-            // to null-String
-            /*
-              REMARK BY NICO KUIJPERS.
-              Set<String> keyset = propertyListeners.keySet();
-              may cause a java.util.ConcurrentModificationException
-              when the key set changes. Therefore, the key set is copied
-              to an ArrayList.
-             */
-            List<String> keyset = new ArrayList<>(propertyListeners.keySet());
-            for (String key : keyset) {
-                listenersToBeInformed.addAll(propertyListeners.get(key));
-            }
+            // Number event, keep it in the history and queue it for every
+            // listener of the property, also checks whether property is
+            // registered
+            registry.topic(property).publish(this, oldValue, newValue);
+            return;
         }
 
-        // Inform property listeners concurrently
-        for (IPropertyListener listener : listenersToBeInformed) {
+        // Property change event to be sent to all listeners, events are
+        // never modified so one instance is shared
+        final PropertyChangeEvent event = new PropertyChangeEvent(
+                this, null, oldValue, newValue);
 
-            // Define property change event to be sent to listener
-            final PropertyChangeEvent event = new PropertyChangeEvent(
-                    this, property, oldValue, newValue);
+        // Queue event for every property listener, queues of different
+        // listeners are drained concurrently
+        for (ListenerQueue queue : registry.allQueues) {
+            queue.offer(event, Priority.NORMAL, false);
+        }
+    }
 
-            // Create command (runnable) to be executed by thread pool
-            InformListenerRunnable informListenerRunnable
-                    = new InformListenerRunnable(listener, event);
+    /**
+     * Resume remote property listener. The listener is subscribed to every
+     * given property and receives the events of that property which have a
+     * higher sequence number than the given one, followed by all new events.
+     * Properties of which missed events are no longer kept are returned, the
+     * listener should obtain the complete state of those properties instead.
+     *
+     * @param listener remote property listener to be resumed
+     * @param lastSequenceNumbers sequence number of the last event received,
+     * per property, 0 if no event was received
+     * @return properties of which the listener has to obtain the complete state
+     */
+    public synchronized List<String> resumeRemoteListener(IRemotePropertyListener listener,
+            Map<String, Long> lastSequenceNumbers) {
+        List<String> snapshotsRequired = new ArrayList<>();
+
+        for (Map.Entry<String, Long> entry : lastSequenceNumbers.entrySet()) {
+            Topic topic = topics.get(entry.getKey());
+            if (topic == null) {
+                snapshotsRequired.add(entry.getKey());
+                continue;
+            }
 
-            // Execute command at some time in the future
-            pool.execute(informListenerRunnable);
+            // Holding the lock of the topic, no event can be informed between
+            // subscribing and replaying, so nothing is missed or reordered
+            synchronized (topic) {
+                subscribePropertyListener(listener, entry.getKey());
+                if (!topic.replay(listenerQueues.get(listener), entry.getValue())) {
+                    snapshotsRequired.add(entry.getKey());
+                }
+            }
         }
+
+        return snapshotsRequired;
     }
 
     /**
@@ -239,6 +429,34 @@ class Publisher {
      * @param property empty string not allowed
      */
     public void registerProperty(String property) {
+        registerProperty(property, Priority.NORMAL);
+    }
+
+    /**
+     * Register property with given priority. From now on listeners can
+     * subscribe to this property, its events are delivered before pending
+     * events of properties with a lower priority. Nothing changes in case
+     * given property was already registered.
+     *
+     * @param property empty string not allowed
+     * @param priority of the events of the property
+     */
+    public void registerProperty(String property, Priority priority) {
+        registerProperty(property, priority, PropertyKind.STREAM);
+    }
+
+    /**
+     * Register property with given priority and kind. From now on listeners
+     * can subscribe to this property. In case the property carries state, a
+     * pending event of the property is replaced by a newer one, so only the
+     * newest undelivered state is sent. Nothing changes in case given
+     * property was already registered.
+     *
+     * @param property empty string not allowed
+     * @param priority of the events of the property
+     * @param kind whether the events are a stream of changes or states
+     */
+    public synchronized void registerProperty(String property, Priority priority, PropertyKind kind) {
         if (property.equals("")) {
             throw new RuntimeException("a property cannot be an empty string");
         }
@@ -247,9 +465,10 @@ class Publisher {
             return;
         }
         
-        propertyListeners.put(property, Collections.synchronizedList(new ArrayList<>()));
+        propertyListeners.put(property, new LinkedHashSet<>());
+        topics.put(property, new Topic(property, priority, kind));
         
-        setPropertiesString();
+        rebuildRegistry();
     }
 
     /**
@@ -260,7 +479,7 @@ class Publisher {
      *
      * @param property registered property at this publisher
      */
-    public void unregisterProperty(String property) {
+    public synchronized void unregisterProperty(String property) {
         // Check whether property is registered
         checkInBehalfOfProgrammer(property);
 
@@ -268,54 +487,130 @@ class Publisher {
             // Unsubscribe listeners from this property
             propertyListeners.remove(property);
         } else {
-            /*
-              REMARK BY NICO KUIJPERS.
-              Set<String> keyset = propertyListeners.keySet();
-              causes java.util.ConcurrentModificationException
-              as the key set changes while keys are being removed.
-              Therefore, the key set is copied to an ArrayList.
-              Corresponding test method: testUnregisterPropertyAllProperties().
-             */
-            List<String> keyset = new ArrayList<>(propertyListeners.keySet());
-            for (String key : keyset) {
-                if (key != null) {
-                    propertyListeners.remove(key);
-                }
-            }
+            propertyListeners.keySet().removeIf(Objects::nonNull);
         }
         
-        setPropertiesString();
+        discardUnsubscribedQueues();
+        rebuildRegistry();
     }
 
-    // Set string of all registered properties 
-    private void setPropertiesString() {
-        List<String> properties = getProperties();
-        StringBuilder sb = new StringBuilder();
-        sb.append("{ ");
-        boolean firstProperty = true;
-        for (String property : properties) {
-            if (firstProperty) {
-                firstProperty = false;
+    // Close queues of listeners which are not subscribed to any property
+    // anymore, must hold the lock of this publisher
+    private void discardUnsubscribedQueues() {
+        Iterator<Map.Entry<IPropertyListener, ListenerQueue>> iterator = listenerQueues.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<IPropertyListener, ListenerQueue> entry = iterator.next();
+            if (!isSubscribed(entry.getKey())) {
+                entry.getValue().close();
+                iterator.remove();
             }
-            else {
-                sb.append(", ");
+        }
+    }
+
+    // Check whether listener is subscribed to any property, must hold the
+    // lock of this publisher
+    private boolean isSubscribed(IPropertyListener listener) {
+        for (Set<IPropertyListener> listeners : propertyListeners.values()) {
+            if (listeners.contains(listener)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Replace the registry snapshot, must hold the lock of this publisher
+    private void rebuildRegistry() {
+        Set<IPropertyListener> allListeners = propertyListeners.get(null);
+        Map<String, Topic> topicsByProperty = new HashMap<>();
+        Set<ListenerQueue> queuesOfAllProperties = new LinkedHashSet<>();
+
+        // Forget history of unregistered properties
+        topics.keySet().retainAll(propertyListeners.keySet());
+
+        for (Map.Entry<String, Set<IPropertyListener>> entry : propertyListeners.entrySet()) {
+            // Listeners subscribed to given property or to the null-String,
+            // a listener subscribed to both is informed once
+            Set<ListenerQueue> queues = new LinkedHashSet<>();
+            for (IPropertyListener listener : entry.getValue()) {
+                queues.add(listenerQueues.get(listener));
+            }
+            for (IPropertyListener listener : allListeners) {
+                queues.add(listenerQueues.get(listener));
+            }
+
+            queuesOfAllProperties.addAll(queues);
+
+            if (entry.getKey() != null) {
+                Topic topic = topics.get(entry.getKey());
+                topic.queues = queues.toArray(new ListenerQueue[0]);
+                topicsByProperty.put(entry.getKey(), topic);
             }
-            sb.append(property);
         }
-        sb.append(" }");
-        propertiesString = sb.toString();
+
+        // Inform on null-String reaches all subscribed listeners
+        registry = new Registry(topicsByProperty, queuesOfAllProperties.toArray(new ListenerQueue[0]),
+                new ArrayList<>(propertyListeners.keySet()));
     }
 
     // Check whether property is registered
     private void checkInBehalfOfProgrammer(String property)
             throws RuntimeException {
-        if (!propertyListeners.containsKey(property)) {
-            throw new RuntimeException("property " + property + " is not a "
-                    + "published property, please make a choice out of: "
-                    + propertiesString);
+        if (property != null) {
+            registry.topic(property);
+        }
+    }
+
+    /**
+     * Register the metrics of this publisher at the platform MBean server, so
+     * they can be inspected through JMX under object name
+     * shared.fontyspublisher:type=Publisher,name=given name. Metrics which
+     * were registered under another name are unregistered first.
+     *
+     * @param name identifying this publisher, e.g. its owner
+     */
+    public synchronized void registerMetrics(String name) {
+        unregisterMetrics();
+
+        try {
+            Hashtable<String, String> keys = new Hashtable<>();
+            keys.put("type", "Publisher");
+            keys.put("name", ObjectName.quote(name));
+            ObjectName objectName = new ObjectName("shared.fontyspublisher", keys);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(metrics), objectName);
+            metricsName = objectName;
+        } catch (JMException ex) {
+            // Metrics are not essential to the delivery of events
+            Logger.getLogger(Publisher.class.getName()).log(Level.WARNING, null, ex);
         }
     }
 
+    /**
+     * Unregister the metrics of this publisher from the platform MBean
+     * server. Nothing happens in case they are not registered.
+     */
+    public synchronized void unregisterMetrics() {
+        if (metricsName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException ex) {
+            Logger.getLogger(Publisher.class.getName()).log(Level.WARNING, null, ex);
+        }
+        metricsName = null;
+    }
+
+    /**
+     * Obtain the metrics of this publisher, which are also exposed through
+     * JMX once registered.
+     *
+     * @return live view on the statistics of this publisher
+     */
+    public PublisherMXBean getMetrics() {
+        return metrics;
+    }
+
     /**
      * Obtain all registered properties. An unmodifiable list all properties
      * including the null property is returned.
@@ -323,41 +618,758 @@ class Publisher {
      * @return list of registered properties including null
      */
     public List<String> getProperties() {
-        List<String> properties = new ArrayList<>(propertyListeners.keySet());
-        return Collections.unmodifiableList(properties);
+        return registry.properties;
     }
 
-    // Inner class to enable concurrent method invocation of propertyChange()
-    private class InformListenerRunnable implements Runnable {
+    // Deliver event to the listener of given queue, returns false when
+    // listener is disconnected
+    private boolean deliver(ListenerQueue queue, PropertyChangeEvent event) {
+        IPropertyListener listener = queue.listener;
+        if (listener instanceof ILocalPropertyListener) {
+            // Property listener is local
+            ILocalPropertyListener localListener = (ILocalPropertyListener) listener;
+            try {
+                localListener.propertyChange(event);
+            } catch (RuntimeException ex) {
+                // Do not let one event stop the delivery of the next ones
+                queue.failed();
+                Logger.getLogger(Publisher.class.getName()).log(Level.SEVERE, null, ex);
+                return true;
+            }
+        } else {
+            // Property listener is remote
+            IRemotePropertyListener remoteListener = (IRemotePropertyListener) listener;
+            try {
+                remoteListener.propertyChange(event);
+            } catch (RemoteException ex) {
+                // No connection to remote property listener
+                queue.failed();
+                evict(listener);
+                Logger.getLogger(Publisher.class.getName()).log(Level.SEVERE, null, ex);
+                return false;
+            }
+        }
+        queue.delivered(event);
+        return true;
+    }
+
+    // Deliver events to the batch listener of given queue in one remote
+    // method invocation, returns false when listener is disconnected
+    private boolean deliverBatch(ListenerQueue queue, List<PropertyChangeEvent> events) {
+        try {
+            ((IRemoteBatchPropertyListener) queue.listener).propertyChanges(events);
+        } catch (RemoteException ex) {
+            // No connection to remote property listener
+            queue.failed();
+            evict(queue.listener);
+            Logger.getLogger(Publisher.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+        for (PropertyChangeEvent event : events) {
+            queue.delivered(event);
+        }
+        return true;
+    }
+
+    // Unsubscribe a listener which is too slow or unreachable
+    private void evict(IPropertyListener listener) {
+        metrics.evictions.increment();
+        unsubscribeListener(listener, null);
+    }
+
+    // Number of encoded bytes of the values of given event, values which are
+    // not encoded, such as most states, are not counted
+    private static long encodedSize(PropertyChangeEvent event) {
+        long size = 0;
+        if (event.getOldValue() instanceof IEncodedPayload) {
+            size += ((IEncodedPayload) event.getOldValue()).size();
+        }
+        if (event.getNewValue() instanceof IEncodedPayload) {
+            size += ((IEncodedPayload) event.getNewValue()).size();
+        }
+        return size;
+    }
+
+    // Empty lane for every priority
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<PropertyChangeEvent>[] newLanes() {
+        ArrayDeque<PropertyChangeEvent>[] lanes = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+        return lanes;
+    }
+
+    // Inner class holding the bounded queue of pending events of one
+    // listener, with a FIFO lane per priority. The queue is scheduled on the
+    // thread pool when it becomes non-empty and is drained by at most one
+    // thread at a time, highest priority lane first, so the events of a
+    // property are delivered to the listener in the order they were informed.
+    private class ListenerQueue implements Runnable {
 
         // Property listener to be informed
         final IPropertyListener listener;
 
-        // Property change event to be sent to listener
-        final PropertyChangeEvent event;
+        // Pending events per priority, indexed by ordinal, guarded by this
+        private final ArrayDeque<PropertyChangeEvent>[] lanes;
+
+        // Number of pending events in all lanes, guarded by this
+        private int size;
+
+        // Whether the queue is scheduled on or running in the thread pool
+        private boolean scheduled;
+
+        // Whether the listener is unsubscribed, no events are accepted anymore
+        private boolean closed;
 
-        InformListenerRunnable(IPropertyListener listener, PropertyChangeEvent event) {
+        // Number of invocations in a row which missed their deadline
+        private final AtomicInteger missedDeadlines;
+
+        // Statistics of the deliveries to the listener
+        private final LongAdder deliveredEvents;
+        private final LongAdder droppedEvents;
+        private final LongAdder failedDeliveries;
+        private final LongAdder bytesSent;
+        private final LatencyHistogram latency;
+
+        ListenerQueue(IPropertyListener listener) {
+            this.missedDeadlines = new AtomicInteger();
             this.listener = listener;
-            this.event = event;
+            this.lanes = newLanes();
+            this.deliveredEvents = new LongAdder();
+            this.droppedEvents = new LongAdder();
+            this.failedDeliveries = new LongAdder();
+            this.bytesSent = new LongAdder();
+            this.latency = new LatencyHistogram();
+        }
+
+        // Add event to the lane of given priority, replacing a pending event
+        // of the same property when the event supersedes it, applying the
+        // overflow policy when full
+        void offer(PropertyChangeEvent event, Priority priority, boolean supersedes) {
+            boolean disconnect = false;
+            boolean schedule = false;
+
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                if (supersedes && removePending(lanes[priority.ordinal()], event.getPropertyName())) {
+                    metrics.coalescedEvents.increment();
+                } else if (size >= queueCapacity) {
+                    switch (overflowPolicy) {
+                        case COALESCE:
+                            if (!removePending(lanes[priority.ordinal()], event.getPropertyName())) {
+                                pollLeastUrgent();
+                            }
+                            dropped();
+                            break;
+                        case DISCONNECT:
+                            disconnect = true;
+                            break;
+                        default:
+                            pollLeastUrgent();
+                            dropped();
+                            break;
+                    }
+                }
+
+                if (!disconnect) {
+                    lanes[priority.ordinal()].addLast(event);
+                    size++;
+                    schedule = !scheduled;
+                    scheduled = true;
+                }
+            }
+
+            if (disconnect) {
+                // Unsubscribe on the pool, the caller may hold the lock of a
+                // topic which must not be held while locking this publisher
+                Logger.getLogger(Publisher.class.getName()).log(Level.WARNING,
+                        "delivery queue of listener is full, listener is disconnected");
+                pool.execute(() -> evict(listener));
+            } else if (schedule) {
+                pool.execute(this);
+            }
+        }
+
+        // Remove the oldest pending event of given property from given lane
+        private boolean removePending(ArrayDeque<PropertyChangeEvent> lane, String property) {
+            Iterator<PropertyChangeEvent> iterator = lane.iterator();
+            while (iterator.hasNext()) {
+                if (Objects.equals(iterator.next().getPropertyName(), property)) {
+                    iterator.remove();
+                    size--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Remove the oldest pending event of the lowest priority, the queue
+        // must not be empty
+        private void pollLeastUrgent() {
+            for (int i = lanes.length - 1; i >= 0; i--) {
+                if (!lanes[i].isEmpty()) {
+                    lanes[i].pollFirst();
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        // Remove the oldest pending event of the highest priority, null if
+        // the queue is empty, must hold the lock of this queue
+        private PropertyChangeEvent pollMostUrgent() {
+            for (ArrayDeque<PropertyChangeEvent> lane : lanes) {
+                if (!lane.isEmpty()) {
+                    size--;
+                    return lane.pollFirst();
+                }
+            }
+            return null;
+        }
+
+        // Priority of the most urgent pending event, used by the shared
+        // thread pool to run the most urgent queues first
+        synchronized Priority urgency() {
+            for (Priority priority : Priority.values()) {
+                if (!lanes[priority.ordinal()].isEmpty()) {
+                    return priority;
+                }
+            }
+            return Priority.BULK;
+        }
+
+        // Invoke the remote listener with given events on a callback
+        // thread. The queue stays scheduled until the invocation returns and
+        // is then put back on the pool to deliver its next events, so the
+        // listener never runs two invocations at the same time. The deadline
+        // starts when the invocation starts
+        private void invokeRemote(List<PropertyChangeEvent> events) {
+            SharedPool.CALLBACKS.execute(() -> {
+                AtomicBoolean returned = new AtomicBoolean();
+                AtomicBoolean late = new AtomicBoolean();
+                ScheduledFuture<?> deadline = SharedPool.WATCHDOG.schedule(
+                        () -> deadlineMissed(returned, late), callbackDeadline, TimeUnit.MILLISECONDS);
+
+                boolean connected = listener instanceof IRemoteBatchPropertyListener
+                        ? deliverBatch(this, events) : deliver(this, events.get(0));
+                returned.set(true);
+                deadline.cancel(false);
+
+                if (connected) {
+                    if (!late.get()) {
+                        missedDeadlines.set(0);
+                    }
+                    pool.execute(this);
+                }
+            });
+        }
+
+        // Invoked by the watchdog when an invocation missed its deadline,
+        // counts one miss and unsubscribes the listener when too many
+        // invocations in a row missed their deadline. Otherwise the queue
+        // keeps waiting for the invocation, and the listener is unsubscribed
+        // when it is still running after that many deadlines
+        private void deadlineMissed(AtomicBoolean returned, AtomicBoolean late) {
+            if (returned.get()) {
+                return;
+            }
+            late.set(true);
+
+            if (missedDeadlines.incrementAndGet() >= maxMissedDeadlines) {
+                Logger.getLogger(Publisher.class.getName()).log(Level.WARNING,
+                        "listener missed {0} deadlines in a row and is disconnected", maxMissedDeadlines);
+                evict(listener);
+                return;
+            }
+
+            SharedPool.WATCHDOG.schedule(() -> {
+                if (!returned.get()) {
+                    Logger.getLogger(Publisher.class.getName()).log(Level.WARNING,
+                            "invocation of listener runs for {0} deadlines and listener is disconnected",
+                            maxMissedDeadlines);
+                    evict(listener);
+                }
+            }, callbackDeadline * (maxMissedDeadlines - 1), TimeUnit.MILLISECONDS);
+        }
+
+        // Discard pending events and stop accepting new ones
+        synchronized void close() {
+            closed = true;
+            for (ArrayDeque<PropertyChangeEvent> lane : lanes) {
+                lane.clear();
+            }
+            size = 0;
+        }
+
+        // Number of pending events
+        synchronized int size() {
+            return size;
+        }
+
+        // Count a pending event which was dropped because the queue was full
+        private void dropped() {
+            droppedEvents.increment();
+            metrics.droppedEvents.increment();
+        }
+
+        // Count a failed invocation of the listener
+        void failed() {
+            failedDeliveries.increment();
+            metrics.failedDeliveries.increment();
+        }
+
+        // Count a delivered event, the latency is measured from the moment
+        // the event was informed
+        void delivered(PropertyChangeEvent event) {
+            deliveredEvents.increment();
+            metrics.deliveredEvents.increment();
+
+            long size = encodedSize(event);
+            if (size > 0) {
+                bytesSent.add(size);
+                metrics.bytesSent.add(size);
+            }
+
+            if (event instanceof TopicEvent) {
+                long nanos = System.nanoTime() - ((TopicEvent) event).getInformedNanos();
+                latency.record(nanos);
+                metrics.latency.record(nanos);
+            }
+        }
+
+        // Snapshot of the statistics of this queue
+        ListenerMetrics snapshot() {
+            return new ListenerMetrics(listener.toString(), size(), deliveredEvents.sum(),
+                    droppedEvents.sum(), failedDeliveries.sum(), bytesSent.sum(),
+                    latency.percentileMillis(50), latency.percentileMillis(99));
         }
 
         @Override
         public void run() {
-            if (listener instanceof ILocalPropertyListener) {
-                // Property listener is local
-                ILocalPropertyListener localListener = (ILocalPropertyListener) listener;
-                localListener.propertyChange(event);
-            } else {
-                // Property listener is remote
-                IRemotePropertyListener remoteListener = (IRemotePropertyListener) listener;
-                try {
-                    remoteListener.propertyChange(event);
-                } catch (RemoteException ex) {
-                    // No connection to remote property listener
-                    unsubscribeListener(listener, null);
-                    Logger.getLogger(Publisher.class.getName()).log(Level.SEVERE, null, ex);
+            if (listener instanceof IRemotePropertyListener) {
+                runRemote();
+                return;
+            }
+
+            for (int i = 0; i < MAX_EVENTS_PER_RUN; i++) {
+                PropertyChangeEvent event;
+                synchronized (this) {
+                    event = pollMostUrgent();
+                    if (event == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+
+                deliver(this, event);
+            }
+
+            // Give other listeners a turn before delivering the remaining events
+            pool.execute(this);
+        }
+
+        // Hand the next pending event, or for a batch listener everything
+        // which was queued while the previous batch was in flight, to a
+        // callback thread, the pool thread is released right away
+        private void runRemote() {
+            List<PropertyChangeEvent> events;
+            synchronized (this) {
+                if (size == 0) {
+                    scheduled = false;
+                    return;
+                }
+
+                int limit = listener instanceof IRemoteBatchPropertyListener ? MAX_BATCH_SIZE : 1;
+                events = new ArrayList<>(Math.min(size, limit));
+                while (events.size() < limit && size > 0) {
+                    events.add(pollMostUrgent());
+                }
+            }
+
+            invokeRemote(events);
+        }
+    }
+
+    // Immutable snapshot of the registered properties and their listeners
+    private static class Registry {
+
+        // Topic of every registered property except null
+        private final Map<String, Topic> topicsByProperty;
+
+        // Queues of all subscribed listeners, informed on null-String
+        final ListenerQueue[] allQueues;
+
+        // Unmodifiable list of registered properties including null
+        final List<String> properties;
+
+        // String of all registered properties. This string is returned in a
+        // RuntimeException in case a listener tries to subscribe to an
+        // unknown property (see also method checkInBehalfOfProgrammer).
+        private final String propertiesString;
+
+        Registry(Map<String, Topic> topicsByProperty, ListenerQueue[] allQueues, List<String> properties) {
+            this.topicsByProperty = topicsByProperty;
+            this.allQueues = allQueues;
+            this.properties = Collections.unmodifiableList(properties);
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("{ ");
+            boolean firstProperty = true;
+            for (String property : properties) {
+                if (firstProperty) {
+                    firstProperty = false;
+                }
+                else {
+                    sb.append(", ");
+                }
+                sb.append(property);
+            }
+            sb.append(" }");
+            propertiesString = sb.toString();
+        }
+
+        // Topic of given property, which must not be null
+        Topic topic(String property) {
+            Topic topic = topicsByProperty.get(property);
+            if (topic == null) {
+                throw new RuntimeException("property " + property + " is not a "
+                        + "published property, please make a choice out of: "
+                        + propertiesString);
+            }
+            return topic;
+        }
+    }
+
+    // Inner class holding the sequence number and recent events of one
+    // property. Informing a property is serialized by the lock of its topic,
+    // so the listeners of the property receive its events in sequence.
+    private class Topic {
+
+        // Property of this topic
+        private final String property;
+
+        // Priority of the events of this topic
+        private final Priority priority;
+
+        // Whether an event of this topic supersedes the pending one
+        private final boolean state;
+
+        // Queues of the listeners of this property and of the null-String,
+        // replaced when the registry is rebuilt
+        volatile ListenerQueue[] queues;
+
+        // Sequence number of the last informed event, guarded by this
+        private long lastSequenceNumber;
+
+        // Ring buffer of recent events, a single slot for a state topic
+        // since only its newest event is replayed, guarded by this
+        private final TopicEvent[] history;
+
+        // Number of encoded bytes informed, guarded by this
+        private long publishedBytes;
+
+        Topic(String property, Priority priority, PropertyKind kind) {
+            this.property = property;
+            this.priority = priority;
+            this.state = kind == PropertyKind.STATE;
+            this.queues = new ListenerQueue[0];
+            this.history = new TopicEvent[state ? 1 : historySize];
+        }
+
+        // Number event, keep it and queue it for every listener
+        synchronized void publish(Object source, Object oldValue, Object newValue) {
+            lastSequenceNumber++;
+            TopicEvent event = new TopicEvent(source, property, oldValue, newValue, lastSequenceNumber);
+            history[(int) (lastSequenceNumber % history.length)] = event;
+            publishedBytes += encodedSize(event);
+
+            for (ListenerQueue queue : queues) {
+                queue.offer(event, priority, state);
+            }
+        }
+
+        // Queue the events after given sequence number, returns false when
+        // some of them are no longer kept, must hold the lock of this topic.
+        // The newest event of a state topic covers all missed ones.
+        boolean replay(ListenerQueue queue, long sequenceNumber) {
+            if (sequenceNumber > lastSequenceNumber
+                    || !state && sequenceNumber < lastSequenceNumber - history.length) {
+                return false;
+            }
+
+            // Only the newest missed state matters
+            long first = state ? Math.max(sequenceNumber + 1, lastSequenceNumber) : sequenceNumber + 1;
+            for (long next = first; next <= lastSequenceNumber; next++) {
+                queue.offer(history[(int) (next % history.length)], priority, state);
+            }
+            return true;
+        }
+
+        // Snapshot of the statistics of this topic
+        synchronized TopicMetrics snapshot() {
+            return new TopicMetrics(property, queues.length, lastSequenceNumber, publishedBytes);
+        }
+    }
+
+    // Statistics of this publisher, exposed through JMX. Counters include
+    // the deliveries to listeners which are no longer subscribed.
+    private class Metrics implements PublisherMXBean {
+
+        final LongAdder deliveredEvents = new LongAdder();
+        final LongAdder droppedEvents = new LongAdder();
+        final LongAdder coalescedEvents = new LongAdder();
+        final LongAdder failedDeliveries = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        @Override
+        public int getListenerCount() {
+            return registry.allQueues.length;
+        }
+
+        @Override
+        public long getQueuedEvents() {
+            long queued = 0;
+            for (ListenerQueue queue : registry.allQueues) {
+                queued += queue.size();
+            }
+            return queued;
+        }
+
+        @Override
+        public int getPoolQueueSize() {
+            if (pool instanceof ThreadPoolExecutor) {
+                return ((ThreadPoolExecutor) pool).getQueue().size();
+            }
+            return -1;
+        }
+
+        @Override
+        public long getDeliveredEvents() {
+            return deliveredEvents.sum();
+        }
+
+        @Override
+        public long getDroppedEvents() {
+            return droppedEvents.sum();
+        }
+
+        @Override
+        public long getCoalescedEvents() {
+            return coalescedEvents.sum();
+        }
+
+        @Override
+        public long getFailedDeliveries() {
+            return failedDeliveries.sum();
+        }
+
+        @Override
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        @Override
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        @Override
+        public double getLatencyMillisP50() {
+            return latency.percentileMillis(50);
+        }
+
+        @Override
+        public double getLatencyMillisP90() {
+            return latency.percentileMillis(90);
+        }
+
+        @Override
+        public double getLatencyMillisP99() {
+            return latency.percentileMillis(99);
+        }
+
+        @Override
+        public List<ListenerMetrics> getListeners() {
+            List<ListenerMetrics> listeners = new ArrayList<>();
+            for (ListenerQueue queue : registry.allQueues) {
+                listeners.add(queue.snapshot());
+            }
+            return listeners;
+        }
+
+        @Override
+        public List<TopicMetrics> getTopics() {
+            List<TopicMetrics> topicMetrics = new ArrayList<>();
+            for (Topic topic : registry.topicsByProperty.values()) {
+                topicMetrics.add(topic.snapshot());
+            }
+            return topicMetrics;
+        }
+
+        @Override
+        public boolean evictListener(String listener) {
+            for (ListenerQueue queue : registry.allQueues) {
+                if (queue.listener.toString().equals(listener)) {
+                    Logger.getLogger(Publisher.class.getName()).log(Level.WARNING,
+                            "listener is disconnected through JMX");
+                    evict(queue.listener);
+                    return true;
                 }
             }
+            return false;
+        }
+    }
+
+    // Management view of the metrics, which describes what the byte counters
+    // leave out
+    private static class MetricsMBean extends StandardMBean {
+
+        MetricsMBean(Metrics metrics) {
+            super(metrics, PublisherMXBean.class, true);
+        }
+
+        @Override
+        protected String getDescription(MBeanAttributeInfo info) {
+            switch (info.getName()) {
+                case "BytesSent":
+                    return "Number of encoded bytes delivered, " + COUNTED_BYTES;
+                case "Listeners":
+                    return "Statistics of every subscribed listener, for bytesSent " + COUNTED_BYTES;
+                case "Topics":
+                    return "Statistics of every registered property, for publishedBytes " + COUNTED_BYTES;
+                default:
+                    return super.getDescription(info);
+            }
+        }
+    }
+
+    // Executor and watchdog shared by all publishers which are not given an
+    // executor
+    private static class SharedPool {
+
+        static final ExecutorService POOL = createPool();
+
+        // Runs the remote invocations, at most one per listener. A thread
+        // of an invocation to an unsubscribed listener returns when its
+        // connection times out
+        static final ExecutorService CALLBACKS = createCallbacks();
+
+        // Detects remote invocations which miss their deadline
+        static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                    Thread thread = new Thread(runnable, "fontyspublisher-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        // One virtual thread per delivery when the Java runtime supports
+        // them and system property fontyspublisher.virtualthreads is not
+        // false, otherwise a fixed thread pool
+        private static ExecutorService createPool() {
+            ExecutorService virtualThreads = virtualThreads();
+            if (virtualThreads != null) {
+                return virtualThreads;
+            }
+
+            return new PriorityPool(
+                    Integer.getInteger("fontyspublisher.poolsize", DEFAULT_POOL_SIZE),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "fontyspublisher");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        // One virtual thread per invocation when the Java runtime supports
+        // them and system property fontyspublisher.virtualthreads is not
+        // false, so a blocked invocation is cheap. Otherwise a pool of at
+        // most fontyspublisher.callbackpoolsize platform threads, further
+        // invocations wait for a thread before their deadline starts
+        private static ExecutorService createCallbacks() {
+            ExecutorService virtualThreads = virtualThreads();
+            if (virtualThreads != null) {
+                return virtualThreads;
+            }
+
+            int size = Integer.getInteger("fontyspublisher.callbackpoolsize", DEFAULT_CALLBACK_POOL_SIZE);
+            ThreadPoolExecutor callbacks = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "fontyspublisher-callback");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            callbacks.allowCoreThreadTimeOut(true);
+            return callbacks;
+        }
+
+        // Executor which starts a virtual thread per task, null when the
+        // Java runtime does not support them or system property
+        // fontyspublisher.virtualthreads is false
+        private static ExecutorService virtualThreads() {
+            if ("false".equalsIgnoreCase(System.getProperty("fontyspublisher.virtualthreads"))) {
+                return null;
+            }
+
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                // Virtual threads are not available, use platform threads
+                return null;
+            }
+        }
+    }
+
+    // Fixed thread pool which runs the queues with the most urgent pending
+    // events first, tasks of equal urgency run in the order they were
+    // submitted. Tasks other than queues are run as control tasks.
+    private static class PriorityPool extends ThreadPoolExecutor {
+
+        // Number of submitted tasks, orders tasks of equal urgency
+        private final AtomicLong submitted;
+
+        PriorityPool(int size, ThreadFactory threadFactory) {
+            super(size, size, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory);
+            this.submitted = new AtomicLong();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            Priority urgency = command instanceof ListenerQueue
+                    ? ((ListenerQueue) command).urgency() : Priority.CONTROL;
+            super.execute(new PrioritizedTask(command, urgency, submitted.getAndIncrement()));
+        }
+    }
+
+    // Task waiting in the priority pool, its urgency is fixed when submitted
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+
+        private final Runnable task;
+        private final Priority urgency;
+        private final long order;
+
+        PrioritizedTask(Runnable task, Priority urgency, long order) {
+            this.task = task;
+            this.urgency = urgency;
+            this.order = order;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int result = urgency.compareTo(other.urgency);
+            return result != 0 ? result : Long.compare(order, other.order);
         }
     }
 }
@@ -0,0 +1,93 @@
+package shared.fontyspublisher;
+
+import java.util.List;
+
+/**
+ * PublisherMXBean. Management interface of a publisher, registered through
+ * Publisher.registerMetrics(). Used to spot listeners which fall behind.
+ */
+public interface PublisherMXBean {
+
+    /**
+     * @return number of subscribed listeners
+     */
+    int getListenerCount();
+
+    /**
+     * @return number of events waiting to be delivered, over all listeners
+     */
+    long getQueuedEvents();
+
+    /**
+     * @return number of tasks waiting for a thread of the thread pool, -1 if
+     * the pool does not expose its queue
+     */
+    int getPoolQueueSize();
+
+    /**
+     * @return number of events delivered
+     */
+    long getDeliveredEvents();
+
+    /**
+     * @return number of events dropped because a queue was full
+     */
+    long getDroppedEvents();
+
+    /**
+     * @return number of pending events of state properties which were
+     * replaced by a newer state before they were delivered
+     */
+    long getCoalescedEvents();
+
+    /**
+     * @return number of failed deliveries
+     */
+    long getFailedDeliveries();
+
+    /**
+     * @return number of listeners unsubscribed because they were too slow or
+     * unreachable
+     */
+    long getEvictions();
+
+    /**
+     * @return number of encoded bytes delivered, only values wrapped in an
+     * IEncodedPayload are counted, plain values such as most states are not
+     */
+    long getBytesSent();
+
+    /**
+     * @return median delivery latency in milliseconds
+     */
+    double getLatencyMillisP50();
+
+    /**
+     * @return 90th percentile delivery latency in milliseconds
+     */
+    double getLatencyMillisP90();
+
+    /**
+     * @return 99th percentile delivery latency in milliseconds
+     */
+    double getLatencyMillisP99();
+
+    /**
+     * @return statistics of every subscribed listener
+     */
+    List<ListenerMetrics> getListeners();
+
+    /**
+     * @return statistics of every registered property
+     */
+    List<TopicMetrics> getTopics();
+
+    /**
+     * Unsubscribe a listener from all properties, so a slow consumer can be
+     * shed before it holds up the publisher.
+     *
+     * @param listener description of the listener as given by getListeners()
+     * @return true if the listener was subscribed
+     */
+    boolean evictListener(String listener);
+}
@@ -8,6 +8,7 @@ package shared.fontyspublisher;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * RemotePublisher. Remote version of Publisher.
@@ -39,6 +40,20 @@ public class RemotePublisher extends UnicastRemoteObject
         publisher = new Publisher(properties);
     }
 
+    /**
+     * Constructor for RemotePublisher. Property listeners may subscribe to given properties.
+     * 
+     * @param properties used to run the remote publisher
+     * @param pool thread pool used to inform listeners, may be shared with other publishers
+     * @param queueCapacity maximum number of pending events per listener
+     * @param overflowPolicy what happens when the queue of a listener is full
+     * @throws RemoteException if the publisher fails to initialise
+     */
+    public RemotePublisher(String[] properties, ExecutorService pool, int queueCapacity,
+            OverflowPolicy overflowPolicy) throws RemoteException {
+        publisher = new Publisher(properties, pool, queueCapacity, overflowPolicy);
+    }
+
     @Override
     public void subscribeRemoteListener(IRemotePropertyListener listener, String property)
             throws RemoteException {
@@ -97,4 +112,21 @@ public class RemotePublisher extends UnicastRemoteObject
     public List<String> getProperties() throws RemoteException {
         return publisher.getProperties();
     }
+
+    /**
+     * Register the metrics of the publisher through JMX.
+     *
+     * @param name identifying this publisher
+     * @see Publisher#registerMetrics(String)
+     */
+    public void registerMetrics(String name) {
+        publisher.registerMetrics(name);
+    }
+
+    /**
+     * Unregister the metrics of the publisher from JMX.
+     */
+    public void unregisterMetrics() {
+        publisher.unregisterMetrics();
+    }
 }
@@ -0,0 +1,57 @@
+package shared.fontyspublisher;
+
+import java.beans.PropertyChangeEvent;
+
+/**
+ * TopicEvent. Property change event which carries the sequence number of the
+ * change within its property. Sequence numbers of a property start at 1 and
+ * increase by 1 for every change, so a listener can tell which changes it
+ * missed and ask the publisher to resume from the last one it received.
+ */
+public class TopicEvent extends PropertyChangeEvent {
+
+    /**
+     * Sequence number of this change within its property.
+     */
+    private final long sequenceNumber;
+
+    /**
+     * Value of System.nanoTime() when the change was informed, only
+     * meaningful within the publisher which informed it.
+     */
+    private final transient long informedNanos;
+
+    /**
+     * Constructor for TopicEvent.
+     *
+     * @param source the publisher which informed the change
+     * @param property the property which changed
+     * @param oldValue original value of property (null is allowed)
+     * @param newValue new value of property
+     * @param sequenceNumber of this change within the property
+     */
+    public TopicEvent(Object source, String property, Object oldValue, Object newValue, long sequenceNumber) {
+        super(source, property, oldValue, newValue);
+        this.sequenceNumber = sequenceNumber;
+        this.informedNanos = System.nanoTime();
+    }
+
+    /**
+     * Obtain the sequence number of this change within its property.
+     *
+     * @return sequence number, starting at 1
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * Obtain the moment the change was informed, used by the publisher to
+     * measure the delivery latency.
+     *
+     * @return value of System.nanoTime() at construction
+     */
+    long getInformedNanos() {
+        return informedNanos;
+    }
+}
@@ -0,0 +1,76 @@
+package shared.fontyspublisher;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * TopicMetrics. Snapshot of the statistics of one property of a publisher,
+ * exposed through JMX.
+ */
+public class TopicMetrics {
+
+    /**
+     * The property.
+     */
+    private final String property;
+
+    /**
+     * Number of listeners informed of the property.
+     */
+    private final int listenerCount;
+
+    /**
+     * Number of events informed.
+     */
+    private final long publishedEvents;
+
+    /**
+     * Number of encoded bytes informed, counted once per event. Values which
+     * are not wrapped in an IEncodedPayload are not counted.
+     */
+    private final long publishedBytes;
+
+    /**
+     * Constructor for TopicMetrics.
+     *
+     * @param property the property
+     * @param listenerCount number of listeners informed of the property
+     * @param publishedEvents number of events informed
+     * @param publishedBytes number of encoded bytes informed
+     */
+    @ConstructorProperties({"property", "listenerCount", "publishedEvents", "publishedBytes"})
+    public TopicMetrics(String property, int listenerCount, long publishedEvents, long publishedBytes) {
+        this.property = property;
+        this.listenerCount = listenerCount;
+        this.publishedEvents = publishedEvents;
+        this.publishedBytes = publishedBytes;
+    }
+
+    /**
+     * @return the property
+     */
+    public String getProperty() {
+        return property;
+    }
+
+    /**
+     * @return number of listeners informed of the property
+     */
+    public int getListenerCount() {
+        return listenerCount;
+    }
+
+    /**
+     * @return number of events informed, which is also the sequence number of
+     * the last event
+     */
+    public long getPublishedEvents() {
+        return publishedEvents;
+    }
+
+    /**
+     * @return number of encoded bytes informed, counted once per event
+     */
+    public long getPublishedBytes() {
+        return publishedBytes;
+    }
+}
@@ -0,0 +1,116 @@
+package server.logic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import shared.ChatMessage;
+import shared.Message;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that message records written by older versions of the server can still be replayed and read
+ */
+public class MessageLogTest
+{
+    /**
+     * A complete message record of type RECORD_MESSAGE for chat 7, sequence number 1, as it was written to a segment
+     * before messages were encoded by the codec
+     */
+    private static final String LEGACY_MESSAGE_RECORD =
+            "AgAAAOsAAAAAAAAABwAAAAAAAAABrO0ABXNyABJzaGFyZWQuQ2hhdE1lc3NhZ2Xw0DUdra7pBAIAAHhyAA5zaGFyZWQuTWVzc2Fn" +
+            "ZR856fCIMAnxAgADTAAGYXV0aG9ydAASTGphdmEvbGFuZy9TdHJpbmc7TAAIY29udGVudHN0ABJMamF2YS9sYW5nL09iamVjdDtM" +
+            "AAl0aW1lc3RhbXB0ABpMamF2YS90aW1lL09mZnNldERhdGVUaW1lO3hwdAAFYWxpY2V0AAVoZWxsb3NyAA1qYXZhLnRpbWUuU2Vy" +
+            "lV2EuhsiSLIMAAB4cHcPCgAAB+gFAQweDwdbzRUIeHuzNd0=";
+
+    /**
+     * the directory of the log under test
+     */
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException
+    {
+        directory = Files.createTempDirectory("messagelog");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void readsLegacyMessageRecord() throws IOException
+    {
+        byte[] segment = new byte[4096];
+        byte[] record = Base64.getDecoder().decode(LEGACY_MESSAGE_RECORD);
+        System.arraycopy(record, 0, segment, 0, record.length);
+        Files.write(directory.resolve("0000000000.log"), segment);
+
+        List<Long> locators = new ArrayList<>();
+
+        try (MessageLog log = new MessageLog(directory))
+        {
+            log.replay(new MessageLog.ReplayListener()
+            {
+                @Override
+                public void userRegistered(String username, Credentials credentials)
+                { }
+
+                @Override
+                public void contactsChanged(String username, List<String> contactNames)
+                { }
+
+                @Override
+                public void chatCreated(long chatId, List<String> participantNames)
+                { }
+
+                @Override
+                public void messageAppended(long chatId, long sequenceNumber, long locator)
+                {
+                    assertEquals(7, chatId);
+                    assertEquals(1, sequenceNumber);
+                    locators.add(locator);
+                }
+            });
+
+            assertEquals(1, locators.size());
+
+            Message message = log.readMessage(locators.get(0));
+            assertEquals(ChatMessage.class, message.getClass());
+            assertEquals("hello", message.getContents());
+        }
+    }
+
+    @Test
+    public void appendsAfterLegacyMessageRecord() throws IOException
+    {
+        byte[] segment = new byte[4096];
+        byte[] record = Base64.getDecoder().decode(LEGACY_MESSAGE_RECORD);
+        System.arraycopy(record, 0, segment, 0, record.length);
+        Files.write(directory.resolve("0000000000.log"), segment);
+
+        try (MessageLog log = new MessageLog(directory))
+        {
+            long locator = log.appendMessage(7, 2, new ChatMessage("again", "alice"));
+            log.awaitDurable(locator);
+
+            assertEquals(record.length, (int) locator);
+            assertEquals("hello", log.readMessage(0).getContents());
+            assertEquals("again", log.readMessage(locator).getContents());
+        }
+    }
+}
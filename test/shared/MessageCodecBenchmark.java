@@ -0,0 +1,186 @@
+package shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the size and the encode and decode time of a page of chat history written by the message codec with the
+ * default Java serialization messages used before. Not part of the tests, run it by hand:
+ * java -cp out:test-out shared.MessageCodecBenchmark
+ */
+public class MessageCodecBenchmark
+{
+    /**
+     * The amount of messages in the page
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The amount of round trips before measuring
+     */
+    private static final int WARMUP_ROUNDS = 20_000;
+
+    /**
+     * The amount of measured round trips
+     */
+    private static final int MEASURED_ROUNDS = 50_000;
+
+    /**
+     * Runs the benchmark and prints the results
+     * @param args not used
+     * @throws Exception if a page cannot be encoded or decoded
+     */
+    public static void main(String[] args) throws Exception
+    {
+        List<Message> messages = new ArrayList<>();
+        List<LegacyMessage> legacyMessages = new ArrayList<>();
+        OffsetDateTime timestamp = OffsetDateTime.of(2024, 5, 1, 12, 30, 15, 0, ZoneOffset.ofHours(2));
+        String[] authors = { "alice", "bob", "carol" };
+
+        for (int i = 0; i < PAGE_SIZE; i++)
+        {
+            timestamp = timestamp.plusSeconds(7 + i % 13);
+            String author = authors[i % authors.length];
+            String contents = "message " + i + " of the conversation";
+            messages.add(new ChatMessage(timestamp, contents, author));
+            legacyMessages.add(new LegacyMessage(author, contents, timestamp));
+        }
+
+        int codecSize = encode(messages).length;
+        int legacySize = serialize(legacyMessages).length;
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+        {
+            decode(encode(messages));
+            deserialize(serialize(legacyMessages));
+        }
+
+        long codecNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+        {
+            decode(encode(messages));
+        }
+        codecNanos = System.nanoTime() - codecNanos;
+
+        long legacyNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++)
+        {
+            deserialize(serialize(legacyMessages));
+        }
+        legacyNanos = System.nanoTime() - legacyNanos;
+
+        System.out.printf("page of %d messages%n", PAGE_SIZE);
+        System.out.printf("serialization: %6d bytes, %8.1f us per round trip%n", legacySize, legacyNanos / 1000.0 / MEASURED_ROUNDS);
+        System.out.printf("codec:         %6d bytes, %8.1f us per round trip%n", codecSize, codecNanos / 1000.0 / MEASURED_ROUNDS);
+        System.out.printf("saved:         %5.1f%% bytes, %7.1fx faster%n", 100.0 * (legacySize - codecSize) / legacySize,
+                (double) legacyNanos / codecNanos);
+    }
+
+    /**
+     * Writes a page of messages with the codec
+     * @param messages to be written
+     * @return the encoded page
+     * @throws IOException if a message cannot be encoded
+     */
+    private static byte[] encode(List<Message> messages) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(bytes))
+        {
+            MessageCodec.writeMessages(output, messages);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a page of messages written by encode
+     * @param bytes of the encoded page
+     * @return the messages
+     * @throws IOException if the page cannot be decoded
+     */
+    private static List<Message> decode(byte[] bytes) throws IOException
+    {
+        return MessageCodec.readMessages(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * Writes a page of messages with default Java serialization
+     * @param messages to be written
+     * @return the serialized page
+     * @throws IOException if a message cannot be serialized
+     */
+    private static byte[] serialize(List<LegacyMessage> messages) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes))
+        {
+            output.writeObject(messages);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a page of messages written by serialize
+     * @param bytes of the serialized page
+     * @return the messages
+     * @throws IOException if the page cannot be deserialized
+     * @throws ClassNotFoundException if a class of the page is unknown
+     */
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException
+    {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+        {
+            return input.readObject();
+        }
+    }
+
+    /**
+     * The fields a message wrote with default Java serialization before the codec existed
+     */
+    private static class LegacyMessage implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the author of the message
+         */
+        private final String author;
+
+        /**
+         * the contents of the message
+         */
+        private final Object contents;
+
+        /**
+         * the time the message was send
+         */
+        private final OffsetDateTime timestamp;
+
+        /**
+         * Constructor of the legacy message
+         * @param author of the message
+         * @param contents of the message
+         * @param timestamp the time the message was send
+         */
+        LegacyMessage(String author, Object contents, OffsetDateTime timestamp)
+        {
+            this.author = author;
+            this.contents = contents;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package shared;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that messages serialized by older versions can still be read, that the message codec round-trips them and
+ * that the codec keeps writing the format which is stored in the message log
+ */
+public class MessageCodecTest
+{
+    /**
+     * The timestamp of every legacy message
+     */
+    private static final OffsetDateTime TIMESTAMP = OffsetDateTime.of(2024, 5, 1, 12, 30, 15, 123456789, ZoneOffset.ofHours(2));
+
+    /**
+     * A chat message by alice, serialized before messages were encoded by the codec
+     */
+    private static final String LEGACY_CHAT_MESSAGE =
+            "rO0ABXNyABJzaGFyZWQuQ2hhdE1lc3NhZ2Xw0DUdra7pBAIAAHhyAA5zaGFyZWQuTWVzc2FnZR856fCIMAnxAgADTAAGYXV0aG9y" +
+            "dAASTGphdmEvbGFuZy9TdHJpbmc7TAAIY29udGVudHN0ABJMamF2YS9sYW5nL09iamVjdDtMAAl0aW1lc3RhbXB0ABpMamF2YS90" +
+            "aW1lL09mZnNldERhdGVUaW1lO3hwdAAFYWxpY2V0AAVoZWxsb3NyAA1qYXZhLnRpbWUuU2VylV2EuhsiSLIMAAB4cHcPCgAAB+gF" +
+            "AQweDwdbzRUIeA==";
+
+    /**
+     * A file message by bob with its contents, serialized before messages were encoded by the codec
+     */
+    private static final String LEGACY_FILE_MESSAGE =
+            "rO0ABXNyABJzaGFyZWQuRmlsZU1lc3NhZ2VDpeXFw0N/9AIAAkwACGZpbGVuYW1ldAASTGphdmEvbGFuZy9TdHJpbmc7TAAKc3Rv" +
+            "cmVkTmFtZXEAfgABeHIADnNoYXJlZC5NZXNzYWdlHznp8IgwCfECAANMAAZhdXRob3JxAH4AAUwACGNvbnRlbnRzdAASTGphdmEv" +
+            "bGFuZy9PYmplY3Q7TAAJdGltZXN0YW1wdAAaTGphdmEvdGltZS9PZmZzZXREYXRlVGltZTt4cHQAA2JvYnVyAAJbQqzzF/gGCFTg" +
+            "AgAAeHAAAAAEAQIDBHNyAA1qYXZhLnRpbWUuU2VylV2EuhsiSLIMAAB4cHcPCgAAB+gFAQweDwdbzRUIeHQABWEudHh0cA==";
+
+    /**
+     * A file message by alice which refers to stored contents, serialized before messages were encoded by the codec
+     */
+    private static final String LEGACY_STORED_FILE_MESSAGE =
+            "rO0ABXNyABJzaGFyZWQuRmlsZU1lc3NhZ2VDpeXFw0N/9AIAAkwACGZpbGVuYW1ldAASTGphdmEvbGFuZy9TdHJpbmc7TAAKc3Rv" +
+            "cmVkTmFtZXEAfgABeHIADnNoYXJlZC5NZXNzYWdlHznp8IgwCfECAANMAAZhdXRob3JxAH4AAUwACGNvbnRlbnRzdAASTGphdmEv" +
+            "bGFuZy9PYmplY3Q7TAAJdGltZXN0YW1wdAAaTGphdmEvdGltZS9PZmZzZXREYXRlVGltZTt4cHQABWFsaWNlcHNyAA1qYXZhLnRp" +
+            "bWUuU2VylV2EuhsiSLIMAAB4cHcPCgAAB+gFAQweDwdbzRUIeHQABWIucGRmdAAON19zdG9yZWRfYi5wZGY=";
+
+    /**
+     * A chat message without an author, serialized before messages were encoded by the codec
+     */
+    private static final String LEGACY_ANONYMOUS_MESSAGE =
+            "rO0ABXNyABJzaGFyZWQuQ2hhdE1lc3NhZ2Xw0DUdra7pBAIAAHhyAA5zaGFyZWQuTWVzc2FnZR856fCIMAnxAgADTAAGYXV0aG9y" +
+            "dAASTGphdmEvbGFuZy9TdHJpbmc7TAAIY29udGVudHN0ABJMamF2YS9sYW5nL09iamVjdDtMAAl0aW1lc3RhbXB0ABpMamF2YS90" +
+            "aW1lL09mZnNldERhdGVUaW1lO3hwcHQACWFub255bW91c3NyAA1qYXZhLnRpbWUuU2VylV2EuhsiSLIMAAB4cHcPCgAAB+gFAQwe" +
+            "DwdbzRUIeA==";
+
+    /**
+     * The chat message by alice as encoded by the codec
+     */
+    private static final String COMPACT_CHAT_MESSAGE = "01a6cda3bbe663c0700106616c696365010668656c6c6f";
+
+    /**
+     * The file message by bob with its contents as encoded by the codec
+     */
+    private static final String COMPACT_FILE_MESSAGE = "02a6cda3bbe663c0700104626f620106612e747874000501020304";
+
+    /**
+     * The file message by alice which refers to stored contents as encoded by the codec
+     */
+    private static final String COMPACT_STORED_FILE_MESSAGE =
+            "02a6cda3bbe663c0700106616c6963650106622e706466010f375f73746f7265645f622e70646600";
+
+    /**
+     * The batch of BATCH as written by writeMessages, repeated strings are written as back-references and
+     * timestamps as the difference to the previous message
+     */
+    private static final String COMPACT_BATCH =
+            "0401a6cda3bbe663c0700106616c6963650103686901d00fc070000301e707c070020202d8a107000203010c375f73746f7265645f686900";
+
+    /**
+     * A batch which repeats strings, has a message without an author, a timestamp before the previous one and a
+     * different zone offset
+     */
+    private static final List<Message> BATCH = Arrays.asList(
+            new ChatMessage(TIMESTAMP, "hi", "alice"),
+            new ChatMessage(TIMESTAMP.plusSeconds(1), "hi", null),
+            new ChatMessage(TIMESTAMP.plusNanos(500_000_000L), "alice", "alice"),
+            new FileMessage(TIMESTAMP.withOffsetSameInstant(ZoneOffset.UTC).plusMinutes(1), "hi", "alice", "7_stored_hi"));
+
+    @Test
+    public void readsLegacyChatMessage() throws Exception
+    {
+        ChatMessage message = (ChatMessage) deserialize(LEGACY_CHAT_MESSAGE);
+
+        assertEquals("hello", message.getContents());
+        assertEquals("alice", message.getAuthor());
+        assertEquals(TIMESTAMP, message.getTimestamp());
+    }
+
+    @Test
+    public void readsLegacyFileMessage() throws Exception
+    {
+        FileMessage message = (FileMessage) deserialize(LEGACY_FILE_MESSAGE);
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, message.getContents());
+        assertEquals("a.txt", message.getFilename());
+        assertEquals("bob", message.getAuthor());
+        assertNull(message.getStoredName());
+        assertEquals(TIMESTAMP, message.getTimestamp());
+    }
+
+    @Test
+    public void readsLegacyStoredFileMessage() throws Exception
+    {
+        FileMessage message = (FileMessage) deserialize(LEGACY_STORED_FILE_MESSAGE);
+
+        assertNull(message.getContents());
+        assertEquals("b.pdf", message.getFilename());
+        assertEquals("7_stored_b.pdf", message.getStoredName());
+        assertEquals("alice", message.getAuthor());
+    }
+
+    @Test
+    public void readsLegacyMessageWithoutAuthor() throws Exception
+    {
+        ChatMessage message = (ChatMessage) deserialize(LEGACY_ANONYMOUS_MESSAGE);
+
+        assertEquals("anonymous", message.getContents());
+        assertNull(message.getAuthor());
+    }
+
+    @Test
+    public void roundTripsLegacyMessages() throws Exception
+    {
+        for (String legacy : Arrays.asList(LEGACY_CHAT_MESSAGE, LEGACY_FILE_MESSAGE, LEGACY_STORED_FILE_MESSAGE, LEGACY_ANONYMOUS_MESSAGE))
+        {
+            Message message = (Message) deserialize(legacy);
+
+            assertSameMessage(message, MessageCodec.decode(MessageCodec.encode(message)));
+        }
+    }
+
+    @Test
+    public void serializesThroughTheCodec() throws Exception
+    {
+        Message message = new FileMessage(TIMESTAMP, new byte[] { 5, 6 }, "c.png", "carol");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes))
+        {
+            output.writeObject(message);
+        }
+
+        assertSameMessage(message, (Message) deserialize(Base64.getEncoder().encodeToString(bytes.toByteArray())));
+    }
+
+    @Test
+    public void writesRepeatedStringsOnce() throws Exception
+    {
+        String author = "an-author-with-a-rather-long-name";
+        List<Message> messages = Arrays.asList(
+                new ChatMessage(TIMESTAMP, "first", author),
+                new ChatMessage(TIMESTAMP.plusSeconds(1), "first", null),
+                new ChatMessage(TIMESTAMP.plusSeconds(2), "second", author),
+                new FileMessage(TIMESTAMP.plusSeconds(3), new byte[] { 7 }, "first", author));
+
+        byte[] encoded = writeMessages(messages);
+
+        assertEquals(1, occurrences(encoded, author.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, occurrences(encoded, "first".getBytes(StandardCharsets.UTF_8)));
+
+        List<Message> decoded = MessageCodec.readMessages(new DataInputStream(new ByteArrayInputStream(encoded)));
+
+        assertEquals(messages.size(), decoded.size());
+        for (int i = 0; i < messages.size(); i++)
+        {
+            assertSameMessage(messages.get(i), decoded.get(i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOversizedLength() throws Exception
+    {
+        // A chat message whose author claims to be 2 GB long
+        MessageCodec.decode(new byte[] { 1, 0, 0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 });
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNegativeLength() throws Exception
+    {
+        // A chat message whose author has a length with the highest bit set
+        MessageCodec.decode(new byte[] { 1, 0, 0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01 });
+    }
+
+    @Test
+    public void encodesChatMessage() throws Exception
+    {
+        assertEncoding(new ChatMessage(TIMESTAMP, "hello", "alice"), COMPACT_CHAT_MESSAGE);
+    }
+
+    @Test
+    public void encodesFileMessage() throws Exception
+    {
+        assertEncoding(new FileMessage(TIMESTAMP, new byte[] { 1, 2, 3, 4 }, "a.txt", "bob"), COMPACT_FILE_MESSAGE);
+    }
+
+    @Test
+    public void encodesStoredFileMessage() throws Exception
+    {
+        assertEncoding(new FileMessage(TIMESTAMP, "b.pdf", "alice", "7_stored_b.pdf"), COMPACT_STORED_FILE_MESSAGE);
+    }
+
+    @Test
+    public void writesBatchWithBackReferences() throws Exception
+    {
+        assertArrayEquals(fromHex(COMPACT_BATCH), writeMessages(BATCH));
+
+        List<Message> decoded = MessageCodec.readMessages(new DataInputStream(new ByteArrayInputStream(fromHex(COMPACT_BATCH))));
+
+        assertEquals(BATCH.size(), decoded.size());
+        for (int i = 0; i < BATCH.size(); i++)
+        {
+            assertSameMessage(BATCH.get(i), decoded.get(i));
+        }
+    }
+
+    /**
+     * Checks that a message is encoded as the expected bytes and that those bytes decode to the message
+     * @param message to be encoded
+     * @param expected the encoded message in hexadecimal
+     * @throws IOException if the message cannot be encoded or decoded
+     */
+    private static void assertEncoding(Message message, String expected) throws IOException
+    {
+        assertArrayEquals(fromHex(expected), MessageCodec.encode(message));
+        assertSameMessage(message, MessageCodec.decode(fromHex(expected)));
+    }
+
+    /**
+     * Converts a hexadecimal string to bytes
+     * @param hex two hexadecimal characters per byte
+     * @return the bytes
+     */
+    private static byte[] fromHex(String hex)
+    {
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Checks that a decoded message equals the original, timestamps are encoded with millisecond precision
+     * @param expected the original message
+     * @param actual the decoded message
+     */
+    private static void assertSameMessage(Message expected, Message actual)
+    {
+        assertSame(expected.getClass(), actual.getClass());
+        assertEquals(expected.getAuthor(), actual.getAuthor());
+        assertEquals(expected.getTimestamp().truncatedTo(ChronoUnit.MILLIS), actual.getTimestamp());
+
+        if (expected instanceof FileMessage)
+        {
+            FileMessage expectedFile = (FileMessage) expected;
+            FileMessage actualFile = (FileMessage) actual;
+
+            assertArrayEquals(expectedFile.getContents(), actualFile.getContents());
+            assertEquals(expectedFile.getFilename(), actualFile.getFilename());
+            assertEquals(expectedFile.getStoredName(), actualFile.getStoredName());
+        }
+        else
+        {
+            assertEquals(expected.getContents(), actual.getContents());
+        }
+    }
+
+    /**
+     * Deserializes an object
+     * @param base64 the serialized object
+     * @return the deserialized object
+     * @throws IOException if the object cannot be deserialized
+     * @throws ClassNotFoundException if the class of the object is unknown
+     */
+    private static Object deserialize(String base64) throws IOException, ClassNotFoundException
+    {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(base64))))
+        {
+            return input.readObject();
+        }
+    }
+
+    /**
+     * Encodes a list of messages with a single codec
+     * @param messages to be encoded
+     * @return the encoded messages
+     * @throws IOException if a message cannot be encoded
+     */
+    private static byte[] writeMessages(List<Message> messages) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(bytes))
+        {
+            MessageCodec.writeMessages(output, messages);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Counts how often a sequence of bytes occurs in an array
+     * @param bytes to be searched
+     * @param sequence to be found
+     * @return the amount of occurrences
+     */
+    private static int occurrences(byte[] bytes, byte[] sequence)
+    {
+        int count = 0;
+
+        for (int i = 0; i + sequence.length <= bytes.length; i++)
+        {
+            if (Arrays.equals(bytes, i, i + sequence.length, sequence, 0, sequence.length))
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,57 @@
+package shared.fontyspublisher;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Microbenchmark of the inform() hot path: 20 properties, 10 listeners to
+ * single properties and one listener to all properties, informed from one
+ * thread. Allocations are measured on the informing thread only, they depend
+ * on escape analysis of the JIT so the numbers vary between JVMs. Not part of
+ * the tests, run it by hand:
+ * java -cp out:test-out shared.fontyspublisher.PublisherBenchmark
+ */
+public class PublisherBenchmark {
+
+    private static final int PROPERTIES = 20;
+    private static final int WARMUP = 200_000;
+    private static final int MEASURED = 1_000_000;
+
+    /**
+     * Runs the benchmark and prints the results. The event itself is about
+     * 50 bytes; copying the listener lists per inform took about 170.
+     *
+     * @param args not used
+     */
+    public static void main(String[] args) {
+        Publisher publisher = new Publisher();
+        String[] properties = new String[PROPERTIES];
+        for (int i = 0; i < PROPERTIES; i++) {
+            properties[i] = "property" + i;
+            publisher.registerProperty(properties[i]);
+        }
+        for (int i = 0; i < 10; i++) {
+            publisher.subscribeLocalListener(event -> { }, properties[i]);
+        }
+        publisher.subscribeLocalListener(event -> { }, null);
+
+        Integer value = 42;
+        for (int i = 0; i < WARMUP; i++) {
+            publisher.inform(properties[i % PROPERTIES], null, value);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < MEASURED; i++) {
+            publisher.inform(properties[i % PROPERTIES], null, value);
+        }
+
+        long nanos = System.nanoTime() - start;
+        long bytesPerInform = (threads.getThreadAllocatedBytes(thread) - allocatedBefore) / MEASURED;
+        System.out.printf("inform: %d ns, %d bytes allocated per call%n", nanos / MEASURED, bytesPerInform);
+        System.exit(0);
+    }
+}